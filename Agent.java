@@ -0,0 +1,14 @@
+import java.util.Random;
+
+//Something that plays Pac-Man: picks the input for the next Game.step().
+public interface Agent {
+    //'U', 'D', 'L', 'R', or 0 to keep going
+    char nextInput(Game game);
+
+    //presses a random arrow key now and then, like someone mashing keys
+    static Agent random(long seed) {
+        Random random = new Random(seed);
+        char[] directions = {'U', 'D', 'L', 'R'};
+        return game -> random.nextInt(8) == 0 ? directions[random.nextInt(4)] : 0;
+    }
+}
@@ -1,24 +1,45 @@
+import java.io.IOException;
+import java.nio.file.Path;
 import javax.swing.JFrame;
 
 public class App {
+    //usage: java App [level.txt | level.pml | random [rows columns]]
     public static void main(String[] args) throws Exception {
-        int rowCount = 21;
-        int columnCount = 19;
-        int tileSize = 32;
-        int boardWidth = columnCount * tileSize;
-        int boardHeight = rowCount * tileSize;
+        Game game;
+        if (args.length > 0 && args[0].equals("random")) {
+            //a new maze every level, the size of the classic one unless asked
+            int rows = args.length > 2 ? Integer.parseInt(args[1]) : Game.DEFAULT_TILE_MAP.length;
+            int columns = args.length > 2 ? Integer.parseInt(args[2]) : Game.DEFAULT_TILE_MAP[0].length();
+            game = new Game(new MazeGenerator(System.nanoTime(), rows, columns), System.nanoTime());
+        }
+        else {
+            Level level = args.length > 0 ? Level.load(Path.of(args[0])) : Level.of(Game.DEFAULT_TILE_MAP);
+            game = new Game(level, System.nanoTime());
+        }
 
         JFrame frame = new JFrame("Pac Man");
         // frame.setVisible(true);
-        frame.setSize(boardWidth, boardHeight);
-        frame.setLocationRelativeTo(null);
         frame.setResizable(false);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
-        PacMan pacmanGame = new PacMan();
+        //the panel sizes itself from the level, pack() sizes the frame around it
+        PacMan pacmanGame = new PacMan(game);
+        pacmanGame.scores = ScoreStore.fromProperty(System.getProperty("user.home") + "/.pacman");
+        if (pacmanGame.scores != null) {
+            ScoreStore scores = pacmanGame.scores;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    scores.close();
+                } catch (IOException e) {
+                    System.err.println("Couldn't save the scores: " + e);
+                }
+            }));
+        }
         frame.add(pacmanGame);
         frame.pack();
-        pacmanGame.requestFocus();
+        frame.setLocationRelativeTo(null);
         frame.setVisible(true);
+        pacmanGame.requestFocus();
+        pacmanGame.start();
     }
-}
\ No newline at end of file
+}
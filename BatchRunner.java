@@ -0,0 +1,131 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongFunction;
+import java.util.stream.IntStream;
+
+//Plays lots of headless games in parallel for tuning ghosts and the speed curve.
+//Game i is seeded with seed + i (and so is its agent), so any single game can be
+//re-run on its own and will play out the same way.
+//With -Dpacman.scoreDir set, every game's result is also kept in the ScoreStore there.
+//
+//usage: java BatchRunner [games] [threads] [seed] [maxTicks] [random|montecarlo]
+public class BatchRunner {
+    static final String CAUSES = "boprgT"; // ghost kinds, T = hit maxTicks
+    static final int MONTE_CARLO_ROLLOUTS = 8; // per direction, without a deadline so runs repeat
+
+    int games;
+    int threads;
+    long seed;
+    long maxTicks;
+    LongFunction<Agent> agents = Agent::random;
+
+    //one slot per game, each written only by the thread that played it
+    int[] scores;
+    int[] livesLost;
+    long[] ticks;
+    LongAdder[] deaths = new LongAdder[CAUSES.length()];
+    ScoreStore store; // null unless -Dpacman.scoreDir is set
+
+    BatchRunner(int games, int threads, long seed, long maxTicks) {
+        this.games = games;
+        this.threads = threads;
+        this.seed = seed;
+        this.maxTicks = maxTicks;
+        for (int i = 0; i < deaths.length; i++) {
+            deaths[i] = new LongAdder();
+        }
+    }
+
+    public void run() throws Exception {
+        scores = new int[games];
+        livesLost = new int[games];
+        ticks = new long[games];
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> IntStream.range(0, games).parallel().forEach(this::play)).get();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    void play(int i) {
+        Game game = new Game(seed + i);
+        Agent agent = agents.apply(seed + i);
+
+        int lives = game.lives;
+        while (!game.gameOver && game.tick < maxTicks) {
+            game.step(agent.nextInput(game));
+            if (game.lives < lives) {
+                deaths[CAUSES.indexOf(game.killedBy)].add(lives - game.lives);
+                lives = game.lives;
+            }
+        }
+        if (!game.gameOver) {
+            deaths[CAUSES.indexOf('T')].increment();
+        }
+
+        scores[i] = game.score;
+        livesLost[i] = 3 - game.lives;
+        ticks[i] = game.tick;
+        if (store != null) {
+            store.put(game); // waits if the store is behind, so no result is lost
+        }
+    }
+
+    public void printSummary(long elapsedNanos) {
+        int[] sorted = scores.clone();
+        Arrays.sort(sorted);
+        long totalTicks = 0;
+        long totalLivesLost = 0;
+        long totalScore = 0;
+        for (int i = 0; i < games; i++) {
+            totalTicks += ticks[i];
+            totalLivesLost += livesLost[i];
+            totalScore += scores[i];
+        }
+        double seconds = elapsedNanos / 1e9;
+
+        System.out.println("games: " + games + " on " + threads + " threads in " + String.format("%.2f", seconds) + "s");
+        System.out.println("throughput: " + String.format("%.0f", games / seconds) + " games/s, "
+                + String.format("%.0f", totalTicks / seconds) + " ticks/s");
+        System.out.println("score: mean " + totalScore / games + ", min " + sorted[0] + ", p50 " + sorted[games / 2]
+                + ", p90 " + sorted[(int) (games * 0.9)] + ", max " + sorted[games - 1]);
+        System.out.println("ticks: mean " + totalTicks / games);
+        System.out.println("lives lost: mean " + String.format("%.2f", (double) totalLivesLost / games));
+        System.out.print("cause of death:");
+        for (int i = 0; i < CAUSES.length(); i++) {
+            System.out.print(" " + CAUSES.charAt(i) + "=" + deaths[i].sum());
+        }
+        System.out.println();
+        if (Metrics.ENABLED) {
+            Metrics.dump(System.out);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        long maxTicks = args.length > 3 ? Long.parseLong(args[3]) : 20 * 60 * 10; // 10 minutes of play
+
+        String agent = args.length > 4 ? args[4] : "random";
+
+        BatchRunner runner = new BatchRunner(games, threads, seed, maxTicks);
+        if (agent.equals("montecarlo")) {
+            //games already run in parallel, so each agent gets one thread
+            runner.agents = agentSeed -> new MonteCarloAgent(agentSeed, 1, MONTE_CARLO_ROLLOUTS, 0);
+        }
+        else if (!agent.equals("random")) {
+            throw new IllegalArgumentException("unknown agent " + agent + ", expected random or montecarlo");
+        }
+        runner.store = ScoreStore.fromProperty(null);
+        long start = System.nanoTime();
+        runner.run();
+        runner.printSummary(System.nanoTime() - start);
+        if (runner.store != null) {
+            runner.store.close();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.Arrays;
+
+//Breadth-first distances (in tiles) from one source tile to every other tile
+//of the maze. Ghosts share one field to Pac-Man, so a ghost's decision is a
+//lookup of its neighbours instead of its own search.
+public class DistanceField {
+    static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    int rowCount;
+    int columnCount;
+    boolean[] wallGrid;
+    int[] dist;
+    int[] queue; // reused by every compute(), so recomputing never allocates
+    int source = -1;
+
+    DistanceField(int rowCount, int columnCount, boolean[] wallGrid) {
+        this.rowCount = rowCount;
+        this.columnCount = columnCount;
+        this.wallGrid = wallGrid;
+        this.dist = new int[rowCount * columnCount];
+        this.queue = new int[rowCount * columnCount];
+    }
+
+    //recompute distances from sourceTile, does nothing if it hasn't moved
+    public void compute(int sourceTile) {
+        if (sourceTile == source) return;
+        source = sourceTile;
+
+        Arrays.fill(dist, UNREACHABLE);
+        if (sourceTile < 0 || wallGrid[sourceTile]) return;
+
+        int head = 0;
+        int tail = 0;
+        dist[sourceTile] = 0;
+        queue[tail++] = sourceTile;
+        while (head < tail) {
+            int tile = queue[head++];
+            int r = tile / columnCount;
+            int c = tile % columnCount;
+            int d = dist[tile] + 1;
+            if (r > 0) tail = visit(tile - columnCount, d, tail);
+            if (r < rowCount - 1) tail = visit(tile + columnCount, d, tail);
+            if (c > 0) tail = visit(tile - 1, d, tail);
+            if (c < columnCount - 1) tail = visit(tile + 1, d, tail);
+        }
+    }
+
+    private int visit(int tile, int d, int tail) {
+        if (!wallGrid[tile] && dist[tile] == UNREACHABLE) {
+            dist[tile] = d;
+            queue[tail++] = tile;
+        }
+        return tail;
+    }
+
+    //the walls changed under us (a new level), recompute on the next compute()
+    public void invalidate() {
+        source = -1;
+    }
+
+    public int distance(int tile) {
+        return tile < 0 ? UNREACHABLE : dist[tile];
+    }
+
+    //direction of the neighbour of tile that is closest to the source,
+    //or 0 if tile can't reach it
+    public char downhill(int tile) {
+        if (tile < 0 || dist[tile] == UNREACHABLE) return 0;
+        int r = tile / columnCount;
+        int c = tile % columnCount;
+        char best = 0;
+        int bestDist = dist[tile];
+        if (r > 0 && dist[tile - columnCount] < bestDist) {
+            best = 'U';
+            bestDist = dist[tile - columnCount];
+        }
+        if (r < rowCount - 1 && dist[tile + columnCount] < bestDist) {
+            best = 'D';
+            bestDist = dist[tile + columnCount];
+        }
+        if (c > 0 && dist[tile - 1] < bestDist) {
+            best = 'L';
+            bestDist = dist[tile - 1];
+        }
+        if (c < columnCount - 1 && dist[tile + 1] < bestDist) {
+            best = 'R';
+        }
+        return best;
+    }
+}
@@ -0,0 +1,1164 @@
+import java.util.Arrays;
+
+//All of the game rules and state, with no Swing in it.
+//PacMan (the JPanel) owns one of these and just draws it; headless runs
+//can call step() as fast as they like.
+public class Game {
+    static final int FRUIT_SPAWN_TICKS = 200; // 10 seconds at 50ms per tick
+    static final int FRUIT_LIFETIME_TICKS = 160; // gone again before the next one is due
+    static final int FRIGHTENED_TICKS = 140; // how long a power food lets pacman eat ghosts
+    static final int POWER_FOOD_POINTS = 50;
+    static final int GHOST_POINTS = 200;
+    static final int PACMAN = 0; // actor index of pacman, ghosts come after it
+    static final int FOOD_OFFSET = 14; // food is a 4x4 dot in the middle of its tile
+    static final int FOOD_SIZE = 4;
+
+    //what a timer does when it fires, see fire()
+    static final int FRUIT_SPAWN = 1;
+    static final int FRUIT_EXPIRE = 2; // data: the fruit's tile
+    static final int FRIGHTENED_END = 3; // data: the ghost
+
+    //X = wall, O = skip, P = pac man, ' ' = food, * = power food
+    //Ghosts: b = blue, o = orange, p = pink, r = red, g = powerful ghost
+    static final String[] DEFAULT_TILE_MAP = {
+        "XXXXXXXXXXXXXXXXXXX",
+        "X        X        X",
+        "X XX XXX X XXX XX X",
+        "X*               *X",
+        "X XX X XXXXX X XX X",
+        "X    X       X    X",
+        "XXXX XXXX XXXX XXXX",
+        "OOOX X       X XOOO",
+        "XXXX X XXrXX X XXXX",
+        "O       bpo  g    O",
+        "XXXX X XXXXX X XXXX",
+        "OOOX X       X XOOO",
+        "XXXX X XXXXX X XXXX",
+        "X        X        X",
+        "X XX XXX X XXX XX X",
+        "X  X     P     X  X",
+        "XX X X XXXXX X X XX",
+        "X*   X   X   X   *X",
+        "X XXXXXX X XXXXXX X",
+        "X                 X",
+        "XXXXXXXXXXXXXXXXXXX"
+    };
+
+    int rowCount;
+    int columnCount;
+    int tileSize = 32;
+    int boardWidth;
+    int boardHeight;
+    Level level;
+    MazeGenerator mazes; // if set, a cleared level is followed by the next maze it makes instead of itself again
+    int levelNumber; // which of mazes' levels this is, 0 for the first
+    //this level's cleared, and the next step() starts the next one. If that's
+    //still being made the game holds still (like it's paused) until it's
+    //ready, so the tick it starts on doesn't depend on how long making it took
+    boolean waitingForLevel;
+    int[] levelGhostTiles = new int[8]; // scratch for loadMap()
+
+    //everything that moves, as parallel arrays indexed by actor: pacman is
+    //actor 0, then the ghosts in map order, then the powerful ghost (if any).
+    //all actors are tileSize x tileSize
+    int actorCount;
+    int ghostCount; // not counting the powerful ghost
+    int powerfulGhost = -1; // actor index, -1 if the map has none
+    int houseY = -1; // the row ghosts start on inside the ghost house (under the 'r' in its door), -1 if there's none
+    char[] kind; // tileMap letter: P, b, o, p, r, g
+    int[] actorX;
+    int[] actorY;
+    int[] startX;
+    int[] startY;
+    int[] velocityX;
+    int[] velocityY;
+    char[] direction; // U D L R
+    boolean[] frightened; // ghosts pacman can eat, for a while after a power food
+    int[] frightenedTimers; // the timer that calms each frightened ghost, -1 if none
+
+    //the last direction asked for that pacman couldn't turn to yet (0 if
+    //none). it's tried again every tick until the turn opens up, so a turn
+    //pressed a few pixels before an intersection still happens
+    char desiredDirection;
+
+    //where pacman was at the start of this tick, for passesThrough()
+    int pacmanFromX;
+    int pacmanFromY;
+
+    //the tile grids, indexed by tile (row*columnCount + col). wallGrid,
+    //powerFoodGrid and the templates below are the level's layout: they're
+    //made by readLevel() and never change after that, so copies share them
+    Level layoutLevel; // the level the layout was read from
+    boolean[] wallGrid;
+    boolean[] powerFoodGrid; // which food is power food
+    long[] foodBits; // a bit per tile, set while its food is uneaten
+    int foodCount; // food left, the level is cleared at 0
+    byte[] fruitGrid; // 0=none, 1=cherry, 2=strawberry, 3=orange
+    int[] fruitTiles; // tiles that have a fruit, the first fruitCount are used
+    int[] fruitTimers; // each fruit's FRUIT_EXPIRE timer, by position in fruitTiles
+    int fruitCount;
+
+    //walkable tiles a fruit can be put on, built in loadMap(). the first
+    //freeTileCount are available, tiles holding a fruit are moved past the end
+    //and freeSlot maps a tile back to its position (-1 when not available)
+    int[] freeTiles;
+    int[] freeSlot;
+    int freeTileCount;
+    int[] spawnExcluded; // tiles under actors, taken out just for one spawn
+
+    //the food and free tiles as the level has them, so clearing a level or
+    //starting a new game just copies these back instead of reading the level
+    long[] foodTemplate;
+    int templateFoodCount;
+    int[] freeTilesTemplate;
+    int[] freeSlotTemplate;
+    int templateFreeTileCount;
+
+    //bumped by every loadMap(), and a log of food tiles eaten since then, so a
+    //renderer can keep its own copy of the maze up to date without rescanning it
+    int mapVersion = 0;
+    int[] eatenFoodTiles;
+    int eatenFoodCount;
+
+    //distance from every tile to pacman's tile, only recomputed when a ghost
+    //asks for it after pacman moved onto a new tile, and shared by all ghosts
+    DistanceField pacmanDistance;
+    char[] openDirections = new char[4];
+
+    //forkFrom() borrows its base game's food, free tiles and distance field
+    //instead of copying them. Whichever is still borrowed is copied into this
+    //game's own arrays (kept here from before the fork) the first time this
+    //game would change it, see ownFood(), ownFreeTiles() and distanceToPacman()
+    boolean sharedFood;
+    boolean sharedFreeTiles;
+    boolean sharedDistance;
+    long[] ownFoodBits;
+    int[] ownFreeTiles;
+    int[] ownFreeSlot;
+    DistanceField ownDistance;
+
+    char[] directions = {'U', 'D', 'L', 'R'}; //up down left right
+    GameRandom random;
+    long seed; // what random started from, so the game can be replayed
+    Recording recording; // if set, every input step() applies is logged here
+    int score = 0;
+    int lives = 3;
+    boolean gameOver = false;
+    boolean paused = false;
+    int speed = 0; // Speed level
+    int lastSpeedIncreaseScore = 0;
+    char killedBy = 0; // kind of the ghost that took the last life
+    int fruitsEaten = 0;
+    long tick = 0; // number of steps simulated, doesn't advance while paused
+    TimerWheel timers = new TimerWheel(); // kept at tick, so it stops while paused too
+
+    Game() {
+        this(DEFAULT_TILE_MAP, System.nanoTime());
+    }
+
+    Game(long seed) {
+        this(DEFAULT_TILE_MAP, seed);
+    }
+
+    Game(String[] tileMap, long seed) {
+        this(Level.of(tileMap), seed);
+    }
+
+    //a game on generated levels: mazes' first level, then its next one every
+    //time a level's cleared
+    Game(MazeGenerator mazes, long seed) {
+        this(mazes.level(0), seed);
+        this.mazes = mazes;
+    }
+
+    Game(Level level, long seed) {
+        setLevel(level);
+        this.seed = seed;
+        this.random = new GameRandom(seed);
+        loadMap();
+        for (int ghost = 1; ghost < actorCount; ghost++) {
+            char newDirection = directions[random.nextInt(4)];
+            updateDirection(ghost, newDirection);
+        }
+    }
+
+    //an exact copy of other, sharing nothing that changes
+    Game(Game other) {
+        copyFrom(other);
+    }
+
+    //advance the game by one tick. input is the direction pressed since the
+    //last tick ('U', 'D', 'L', 'R') or 0 for none
+    public void step(char input) {
+        if (paused || gameOver) return;
+        if (!ready()) return;
+
+        if (input != 0) {
+            if (recording != null) {
+                recording.record(tick, input);
+            }
+            desiredDirection = input;
+        }
+        pacmanFromX = actorX[PACMAN];
+        pacmanFromY = actorY[PACMAN];
+        if (desiredDirection != 0) {
+            updateDirection(PACMAN, desiredDirection);
+            if (direction[PACMAN] == desiredDirection) {
+                desiredDirection = 0;
+            }
+        }
+        long start = Metrics.start();
+        move();
+        Metrics.stop(Metrics.MOVE, start);
+        tick++;
+
+        timers.advance();
+        for (int timer = timers.poll(); timer >= 0; timer = timers.poll()) {
+            fire(timers.event[timer], timers.data[timer]);
+        }
+        if (recording != null) {
+            recording.endTick = tick;
+        }
+    }
+
+    //something scheduled on the timers is due
+    void fire(int event, int data) {
+        if (event == FRUIT_SPAWN) {
+            // Randomly spawn a fruit every FRUIT_SPAWN_TICKS, if none is out
+            timers.schedule(FRUIT_SPAWN_TICKS, FRUIT_SPAWN, 0);
+            if (!gameOver && fruitCount == 0) {
+                long start = Metrics.start();
+                spawnRandomFruit();
+                Metrics.stop(Metrics.SPAWN_FRUIT, start);
+            }
+        }
+        else if (event == FRUIT_EXPIRE) {
+            for (int i = 0; i < fruitCount; i++) {
+                if (fruitTiles[i] == data) {
+                    fruitTimers[i] = -1; // it's fired, don't cancel it
+                }
+            }
+            removeFruit(data);
+        }
+        else if (event == FRIGHTENED_END) {
+            frightened[data] = false;
+            frightenedTimers[data] = -1;
+        }
+    }
+
+    //set the level up for a new game: all of its food and no fruit, everyone
+    //back on their start tiles, and the timers started over with fruit
+    //spawning from now. The level itself is only read the first time (see
+    //readLevel()), after that the layout it made is copied back
+    public void loadMap() {
+        long start = Metrics.start();
+        if (layoutLevel != level) {
+            readLevel();
+        }
+        resetLevel();
+        timers.clear(tick);
+        timers.schedule(FRUIT_SPAWN_TICKS, FRUIT_SPAWN, 0);
+        for (int actor = 0; actor < actorCount; actor++) {
+            actorX[actor] = startX[actor];
+            actorY[actor] = startY[actor];
+            frightened[actor] = false;
+            frightenedTimers[actor] = -1;
+        }
+        Metrics.stop(Metrics.LOAD_MAP, start);
+    }
+
+    //read the level into the layout (walls, power food, the templates and
+    //everyone's start tile). The layout arrays are new every time and never
+    //change afterwards, so every copy of this game can share them
+    void readLevel() {
+        int tiles = rowCount * columnCount;
+        wallGrid = new boolean[tiles];
+        powerFoodGrid = new boolean[tiles];
+        foodTemplate = new long[(tiles + 63) >>> 6];
+        freeTilesTemplate = new int[tiles];
+        freeSlotTemplate = new int[tiles];
+        pacmanDistance = new DistanceField(rowCount, columnCount, wallGrid);
+        foodBits = new long[foodTemplate.length];
+        freeTiles = new int[tiles];
+        freeSlot = new int[tiles];
+        fruitGrid = new byte[tiles];
+        fruitTiles = new int[tiles];
+        fruitTimers = new int[tiles];
+        eatenFoodTiles = new int[tiles];
+        sharedFood = false;
+        sharedFreeTiles = false;
+        sharedDistance = false;
+        Arrays.fill(freeSlot, -1);
+        foodCount = 0;
+        fruitCount = 0;
+        freeTileCount = 0;
+
+        //one pass over the level. ghosts are collected as we go and numbered
+        //after pacman once we know how many there are
+        ghostCount = 0;
+        int pacmanTile = -1;
+        int powerfulGhostTile = -1;
+        for (int r = 0; r < rowCount; r++) {
+            for (int c = 0; c < columnCount; c++) {
+                char tileMapChar = level.tile(r, c);
+                int tile = r*columnCount + c;
+
+                boolean border = r == 0 || c == 0 || r == rowCount - 1 || c == columnCount - 1;
+                if (tileMapChar != 'X' && tileMapChar != 'O' && !border) {
+                    releaseFreeTile(tile);
+                }
+
+                if (tileMapChar == 'X') { //block wall
+                    wallGrid[tile] = true;
+                }
+                else if (tileMapChar == 'b' || tileMapChar == 'o' || tileMapChar == 'p' || tileMapChar == 'r') { //ghosts
+                    if (ghostCount == levelGhostTiles.length) {
+                        levelGhostTiles = Arrays.copyOf(levelGhostTiles, ghostCount * 2);
+                    }
+                    levelGhostTiles[ghostCount++] = tile;
+                }
+                else if (tileMapChar == 'g') { //powerful ghost
+                    powerfulGhostTile = tile;
+                }
+                else if (tileMapChar == 'P') { //pacman
+                    pacmanTile = tile;
+                }
+                else if (tileMapChar == ' ' || tileMapChar == '*') { //food
+                    foodBits[tile >>> 6] |= 1L << tile;
+                    foodCount++;
+                    powerFoodGrid[tile] = tileMapChar == '*';
+                }
+            }
+        }
+        if (pacmanTile < 0) {
+            throw new IllegalArgumentException("level has no pacman (P)");
+        }
+        System.arraycopy(foodBits, 0, foodTemplate, 0, foodBits.length);
+        templateFoodCount = foodCount;
+        System.arraycopy(freeTiles, 0, freeTilesTemplate, 0, tiles);
+        System.arraycopy(freeSlot, 0, freeSlotTemplate, 0, tiles);
+        templateFreeTileCount = freeTileCount;
+
+        actorCount = 1 + ghostCount + (powerfulGhostTile >= 0 ? 1 : 0);
+        powerfulGhost = powerfulGhostTile >= 0 ? actorCount - 1 : -1;
+        kind = new char[actorCount];
+        actorX = new int[actorCount];
+        actorY = new int[actorCount];
+        startX = new int[actorCount];
+        startY = new int[actorCount];
+        velocityX = new int[actorCount];
+        velocityY = new int[actorCount];
+        direction = new char[actorCount];
+        frightened = new boolean[actorCount];
+        frightenedTimers = new int[actorCount];
+        spawnExcluded = new int[actorCount * 4];
+        placeActor(PACMAN, pacmanTile);
+        for (int i = 0; i < ghostCount; i++) {
+            placeActor(1 + i, levelGhostTiles[i]);
+        }
+        if (powerfulGhost >= 0) {
+            placeActor(powerfulGhost, powerfulGhostTile);
+        }
+
+        //the house is where the ghosts start under the red one in its door,
+        //as in the classic maze and MazeGenerator's
+        houseY = -1;
+        for (int ghost = 1; ghost <= ghostCount && houseY < 0; ghost++) {
+            int r = startY[ghost] / tileSize;
+            char below = r + 1 < rowCount ? level.tile(r + 1, startX[ghost] / tileSize) : 0;
+            if (kind[ghost] == 'r' && (below == 'b' || below == 'o' || below == 'p')) {
+                houseY = (r + 1) * tileSize;
+            }
+        }
+        layoutLevel = level;
+    }
+
+    //put the food and free tiles back the way the level has them, after it's been cleared
+    public void resetLevel() {
+        while (fruitCount > 0) {
+            fruitGrid[fruitTiles[--fruitCount]] = 0;
+            timers.cancel(fruitTimers[fruitCount]);
+        }
+        ownFood();
+        ownFreeTiles();
+        System.arraycopy(foodTemplate, 0, foodBits, 0, foodBits.length);
+        foodCount = templateFoodCount;
+        System.arraycopy(freeTilesTemplate, 0, freeTiles, 0, freeTiles.length);
+        System.arraycopy(freeSlotTemplate, 0, freeSlot, 0, freeSlot.length);
+        freeTileCount = templateFreeTileCount;
+        eatenFoodCount = 0;
+        mapVersion++;
+        for (int actor = 0; actor < actorCount; actor++) {
+            velocityX[actor] = 0;
+            velocityY[actor] = 0;
+            direction[actor] = 'U';
+        }
+    }
+
+    boolean hasFood(int tile) {
+        return (foodBits[tile >>> 6] & (1L << tile)) != 0;
+    }
+
+    private void placeActor(int actor, int tile) {
+        int r = tile / columnCount;
+        int c = tile % columnCount;
+        kind[actor] = level.tile(r, c);
+        actorX[actor] = startX[actor] = c*tileSize;
+        actorY[actor] = startY[actor] = r*tileSize;
+        velocityX[actor] = 0;
+        velocityY[actor] = 0;
+        direction[actor] = 'U';
+        frightened[actor] = false;
+        frightenedTimers[actor] = -1;
+    }
+
+    //put a random fruit on a random free tile that no actor is on, for
+    //FRUIT_LIFETIME_TICKS. O(actors), whatever the size of the maze; returns
+    //false if there is nowhere to put it
+    public boolean spawnRandomFruit() {
+        // Take the tiles under pacman and the ghosts out for this draw
+        int excluded = 0;
+        for (int actor = 0; actor < actorCount; actor++) {
+            int firstCol = Math.floorDiv(actorX[actor], tileSize);
+            int lastCol = Math.floorDiv(actorX[actor] + tileSize - 1, tileSize);
+            int firstRow = Math.floorDiv(actorY[actor], tileSize);
+            int lastRow = Math.floorDiv(actorY[actor] + tileSize - 1, tileSize);
+            for (int r = firstRow; r <= lastRow; r++) {
+                for (int c = firstCol; c <= lastCol; c++) {
+                    int tile = tileIndex(r, c);
+                    if (tile >= 0 && freeSlot[tile] >= 0) {
+                        takeFreeTile(tile);
+                        spawnExcluded[excluded++] = tile;
+                    }
+                }
+            }
+        }
+
+        int tile = freeTileCount > 0 ? freeTiles[random.nextInt(freeTileCount)] : -1;
+        while (excluded > 0) {
+            releaseFreeTile(spawnExcluded[--excluded]);
+        }
+        if (tile < 0) {
+            return false;
+        }
+
+        // Create fruit
+        int fruitType = random.nextInt(3) + 1; // 1=cherry, 2=strawberry, 3=orange
+        fruitGrid[tile] = (byte) fruitType;
+        fruitTiles[fruitCount] = tile;
+        fruitTimers[fruitCount++] = timers.schedule(FRUIT_LIFETIME_TICKS, FRUIT_EXPIRE, tile);
+        takeFreeTile(tile);
+        return true;
+    }
+
+    void removeFruit(int tile) {
+        fruitGrid[tile] = 0;
+        releaseFreeTile(tile);
+        for (int i = 0; i < fruitCount; i++) {
+            if (fruitTiles[i] == tile) {
+                timers.cancel(fruitTimers[i]);
+                fruitTiles[i] = fruitTiles[--fruitCount];
+                fruitTimers[i] = fruitTimers[fruitCount];
+                return;
+            }
+        }
+    }
+
+    //swap tile with the last available one and shrink the available part
+    void takeFreeTile(int tile) {
+        int slot = freeSlot[tile];
+        if (slot < 0) return;
+        ownFreeTiles();
+        int last = freeTiles[--freeTileCount];
+        freeTiles[slot] = last;
+        freeSlot[last] = slot;
+        freeSlot[tile] = -1;
+    }
+
+    void releaseFreeTile(int tile) {
+        if (freeSlot[tile] >= 0) return;
+        ownFreeTiles();
+        freeTiles[freeTileCount] = tile;
+        freeSlot[tile] = freeTileCount++;
+    }
+
+    //moves are checked against everything along the way (hitsWallAlong,
+    //passesThrough), not just where they end up, so nothing tunnels through
+    //walls or ghosts once a tick's move gets longer than a tile
+    public void move() {
+        if (paused) return;
+
+        //check wall collisions
+        if (!hitsWallAlong(PACMAN, stepX(PACMAN), stepY(PACMAN))) {
+            actorX[PACMAN] += stepX(PACMAN);
+            actorY[PACMAN] += stepY(PACMAN);
+        }
+
+        //check ghost collisions
+        for (int ghost = 1; ghost <= ghostCount; ghost++) {
+            if (actorsCollide(ghost, PACMAN) || passesThrough(PACMAN, pacmanFromX, pacmanFromY, ghost)) {
+                if (meet(ghost)) return;
+            }
+
+            if (actorY[ghost] == houseY && direction[ghost] != 'U' && direction[ghost] != 'D') {
+                updateDirection(ghost, 'U');
+            }
+            int fromX = actorX[ghost];
+            int fromY = actorY[ghost];
+            walk(ghost);
+            //a ghost that jumped right over pacman still gets it
+            if (passesThrough(ghost, fromX, fromY, PACMAN)) {
+                if (meet(ghost)) return;
+            }
+        }
+
+        // Powerful ghost movement
+        if (powerfulGhost >= 0) {
+            int ghost = powerfulGhost;
+            if (passesThrough(PACMAN, pacmanFromX, pacmanFromY, ghost)) {
+                lives = 0;
+                killedBy = kind[ghost];
+                gameOver = true;
+                return;
+            }
+
+            int fromX = actorX[ghost];
+            int fromY = actorY[ghost];
+            walk(ghost);
+
+            // Check collision with pacman - instant game over for powerful ghost
+            if (actorsCollide(ghost, PACMAN) || passesThrough(ghost, fromX, fromY, PACMAN)) {
+                lives = 0;
+                killedBy = kind[ghost];
+                gameOver = true;
+                return;
+            }
+        }
+
+        // Check fruit collision, only on the tiles pacman overlaps
+        int px = actorX[PACMAN];
+        int py = actorY[PACMAN];
+        int firstCol = Math.floorDiv(px, tileSize);
+        int lastCol = Math.floorDiv(px + tileSize - 1, tileSize);
+        int firstRow = Math.floorDiv(py, tileSize);
+        int lastRow = Math.floorDiv(py + tileSize - 1, tileSize);
+
+        int fruitTile = -1;
+        for (int r = firstRow; r <= lastRow && fruitTile < 0; r++) {
+            for (int c = firstCol; c <= lastCol; c++) {
+                int tile = tileIndex(r, c);
+                if (tile < 0 || fruitGrid[tile] == 0) continue;
+                if (overlaps(px, py, tileSize, tileSize, c*tileSize, r*tileSize, tileSize, tileSize)) {
+                    fruitTile = tile;
+                    int points = fruitGrid[tile] * 10; // 10, 20, or 30 points
+                    score += points;
+                    fruitsEaten++;
+
+                    // Update speed if score threshold reached
+                    checkSpeedIncrease();
+
+                    break;
+                }
+            }
+        }
+        if (fruitTile >= 0) {
+            removeFruit(fruitTile);
+        }
+
+        //eat the food on the tile under pacman's middle, if there is any
+        int foodTile = centerTile(PACMAN);
+        if (foodTile >= 0 && hasFood(foodTile)) {
+            ownFood();
+            foodBits[foodTile >>> 6] &= ~(1L << foodTile);
+            foodCount--;
+            eatenFoodTiles[eatenFoodCount++] = foodTile;
+            if (powerFoodGrid[foodTile]) {
+                score += POWER_FOOD_POINTS;
+                frightenGhosts();
+            }
+            else {
+                score += 10;
+            }
+
+            // Update speed if score threshold reached
+            checkSpeedIncrease();
+        }
+
+        if (foodCount == 0) {
+            if (mazes != null) {
+                waitingForLevel = true; // the next step() starts it
+            }
+            else {
+                resetLevel();
+                resetPositions();
+            }
+        }
+    }
+
+    //false while the next level is still being made, when step() does
+    //nothing and input is ignored
+    public boolean ready() {
+        return !waitingForLevel || nextLevel();
+    }
+
+    //go on to mazes' next level if it's been made, returns false if it hasn't
+    //yet. Never waits for it, that would hold up the tick
+    boolean nextLevel() {
+        Level next = mazes.levelIfReady(levelNumber + 1);
+        if (next == null) {
+            return false;
+        }
+        levelNumber++;
+        setLevel(next);
+        loadMap();
+        resetPositions();
+        waitingForLevel = false;
+        return true;
+    }
+
+    //switch to another level, loadMap() reads it
+    void setLevel(Level level) {
+        this.level = level;
+        rowCount = level.rowCount;
+        columnCount = level.columnCount;
+        boardWidth = columnCount * tileSize;
+        boardHeight = rowCount * tileSize;
+    }
+
+    private void checkSpeedIncrease() {
+        // Increase speed every 100 points
+        if (score >= lastSpeedIncreaseScore + 100) {
+            speed++;
+            lastSpeedIncreaseScore = score;
+
+            // Update velocities for all moving objects
+            for (int actor = 0; actor < actorCount; actor++) {
+                updateVelocity(actor);
+            }
+        }
+    }
+
+    //turn and take a step that way, returns false (and changes nothing) if
+    //that runs into a wall
+    boolean updateDirection(int actor, char newDirection) {
+        char prevDirection = direction[actor];
+        direction[actor] = newDirection;
+        updateVelocity(actor);
+        if (hitsWallAlong(actor, stepX(actor), stepY(actor))) {
+            direction[actor] = prevDirection;
+            updateVelocity(actor);
+            return false;
+        }
+        actorX[actor] += stepX(actor);
+        actorY[actor] += stepY(actor);
+        return true;
+    }
+
+    //a ghost's step. It only picks a way at an intersection or when it runs
+    //into something, else it keeps going
+    void walk(int ghost) {
+        int toX = actorX[ghost] + stepX(ghost);
+        boolean blocked = hitsWallAlong(ghost, stepX(ghost), stepY(ghost)) || toX <= 0 || toX + tileSize >= boardWidth;
+        if (blocked || atIntersection(ghost)) {
+            char chosen = steer(ghost);
+            if (chosen != direction[ghost] && updateDirection(ghost, chosen)) {
+                return;
+            }
+            if (blocked) {
+                //the way it wanted is shut too (off the tile grid after a speed up), any open way will do
+                updateDirection(ghost, randomOpenDirection(ghost));
+                return;
+            }
+        }
+        actorX[ghost] += stepX(ghost);
+        actorY[ghost] += stepY(ghost);
+    }
+
+    //how far the actor moves this tick: its velocity, cut short at the next
+    //tile boundary. Once speed ups make a step that doesn't divide the tile
+    //size, stepping the whole velocity would leave everyone between tiles for
+    //good, where a 1 tile corridor can never be turned into
+    int stepX(int actor) {
+        return toTileEdge(actorX[actor], velocityX[actor]);
+    }
+
+    int stepY(int actor) {
+        return toTileEdge(actorY[actor], velocityY[actor]);
+    }
+
+    int toTileEdge(int position, int velocity) {
+        if (velocity > 0) {
+            return Math.min(velocity, tileSize - Math.floorMod(position, tileSize));
+        }
+        if (velocity < 0) {
+            int back = Math.floorMod(position, tileSize);
+            return Math.max(velocity, back == 0 ? -tileSize : -back);
+        }
+        return 0;
+    }
+
+    //the way a ghost wants to go: downhill on the distance field to pacman,
+    //which all the ghosts share. Frightened ghosts, and the others 1 time in
+    //8 per wanderOdds(), pick any open way instead, so they don't all queue
+    //up on the same path
+    char steer(int ghost) {
+        if (frightened[ghost] || random.nextInt(8) < wanderOdds(kind[ghost])) {
+            return randomOpenDirection(ghost);
+        }
+        char pathDirection = distanceToPacman().downhill(centerTile(ghost));
+        if (pathDirection != 0) {
+            return pathDirection;
+        }
+        //no path (pacman is in the tunnel), head his way
+        if (actorX[ghost] < actorX[PACMAN]) return 'R';
+        if (actorX[ghost] > actorX[PACMAN]) return 'L';
+        return actorY[ghost] < actorY[PACMAN] ? 'D' : 'U';
+    }
+
+    //out of 8: red chases, pink mostly does, blue is half and half, and
+    //orange and the powerful ghost (it ends the game) mostly wander
+    static int wanderOdds(char kind) {
+        switch (kind) {
+            case 'r': return 0;
+            case 'p': return 1;
+            case 'b': return 4;
+            default: return 6;
+        }
+    }
+
+    //on a tile with more than two ways out, where a ghost can turn. Ghosts
+    //off the tile grid (after a speed up) can only turn at walls
+    boolean atIntersection(int ghost) {
+        return Math.floorMod(actorX[ghost], tileSize) == 0 && Math.floorMod(actorY[ghost], tileSize) == 0
+                && openDirections(ghost) > 2;
+    }
+
+    //pacman and a ghost ran into each other: pacman eats it if it's
+    //frightened, else it catches pacman. Returns true if that ended the game
+    private boolean meet(int ghost) {
+        if (frightened[ghost]) {
+            eatGhost(ghost);
+            return false;
+        }
+        return catchPacman(ghost);
+    }
+
+    //a power food was eaten: every ghost but the powerful one can be eaten
+    //for FRIGHTENED_TICKS, starting over for ghosts that already could
+    void frightenGhosts() {
+        for (int ghost = 1; ghost <= ghostCount; ghost++) {
+            timers.cancel(frightenedTimers[ghost]);
+            frightened[ghost] = true;
+            frightenedTimers[ghost] = timers.schedule(FRIGHTENED_TICKS, FRIGHTENED_END, ghost);
+        }
+    }
+
+    void calmGhost(int ghost) {
+        timers.cancel(frightenedTimers[ghost]);
+        frightened[ghost] = false;
+        frightenedTimers[ghost] = -1;
+    }
+
+    //send an eaten ghost back to where it started, no longer frightened
+    private void eatGhost(int ghost) {
+        score += GHOST_POINTS;
+        checkSpeedIncrease();
+        calmGhost(ghost);
+        actorX[ghost] = startX[ghost];
+        actorY[ghost] = startY[ghost];
+        updateDirection(ghost, directions[random.nextInt(4)]);
+    }
+
+    //a ghost caught pacman: lose a life, returns true if that was the last one
+    private boolean catchPacman(int ghost) {
+        lives -= 1;
+        killedBy = kind[ghost];
+        if (lives == 0) {
+            gameOver = true;
+            return true;
+        }
+        resetPositions();
+        return false;
+    }
+
+    void updateVelocity(int actor) {
+        int baseSpeed = tileSize/4;
+        int actualSpeed = baseSpeed + (speed * baseSpeed / 5);
+
+        if (direction[actor] == 'U') {
+            velocityX[actor] = 0;
+            velocityY[actor] = -actualSpeed;
+        }
+        else if (direction[actor] == 'D') {
+            velocityX[actor] = 0;
+            velocityY[actor] = actualSpeed;
+        }
+        else if (direction[actor] == 'L') {
+            velocityX[actor] = -actualSpeed;
+            velocityY[actor] = 0;
+        }
+        else if (direction[actor] == 'R') {
+            velocityX[actor] = actualSpeed;
+            velocityY[actor] = 0;
+        }
+    }
+
+    //index into the tile grids, or -1 when the tile is off the board (e.g. the tunnel)
+    int tileIndex(int r, int c) {
+        if (r < 0 || r >= rowCount || c < 0 || c >= columnCount) {
+            return -1;
+        }
+        return r*columnCount + c;
+    }
+
+    //tile under the middle of the actor, or -1 when that is off the board
+    int centerTile(int actor) {
+        return tileIndex(Math.floorDiv(actorY[actor] + tileSize/2, tileSize), Math.floorDiv(actorX[actor] + tileSize/2, tileSize));
+    }
+
+    boolean isWallTile(int r, int c) {
+        int tile = tileIndex(r, c);
+        return tile >= 0 && wallGrid[tile];
+    }
+
+    //a random direction that isn't straight into a wall from the actor's tile,
+    //so ghosts don't keep picking blocked directions after hitting a wall
+    char randomOpenDirection(int actor) {
+        int count = openDirections(actor);
+        if (count == 0) {
+            return directions[random.nextInt(4)];
+        }
+        return openDirections[random.nextInt(count)];
+    }
+
+    //fills openDirections with the ways out of the actor's tile that aren't
+    //walls and returns how many there are, 0 off the board
+    int openDirections(int actor) {
+        int tile = centerTile(actor);
+        if (tile < 0) {
+            return 0;
+        }
+        int r = tile / columnCount;
+        int c = tile % columnCount;
+        int count = 0;
+        if (!isWallTile(r - 1, c)) openDirections[count++] = 'U';
+        if (!isWallTile(r + 1, c)) openDirections[count++] = 'D';
+        if (!isWallTile(r, c - 1)) openDirections[count++] = 'L';
+        if (!isWallTile(r, c + 1)) openDirections[count++] = 'R';
+        return count;
+    }
+
+    boolean hitsWall(int actor) {
+        return hitsWall(actorX[actor], actorY[actor], tileSize, tileSize);
+    }
+
+    //whether the rectangle overlaps a wall tile, only the 1-4 tiles under it
+    //are looked at
+    boolean hitsWall(int x, int y, int width, int height) {
+        int firstCol = Math.floorDiv(x, tileSize);
+        int lastCol = Math.floorDiv(x + width - 1, tileSize);
+        int firstRow = Math.floorDiv(y, tileSize);
+        int lastRow = Math.floorDiv(y + height - 1, tileSize);
+        for (int r = firstRow; r <= lastRow; r++) {
+            for (int c = firstCol; c <= lastCol; c++) {
+                int tile = tileIndex(r, c);
+                if (tile >= 0 && wallGrid[tile]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    //whether moving the actor by (dx, dy) would run into a wall anywhere on
+    //the way. moves are along one axis, so the path is the rectangle from
+    //where it is to where it would be, and only the tiles under that are
+    //looked at: two rows (or columns) per tile crossed
+    boolean hitsWallAlong(int actor, int dx, int dy) {
+        return hitsWall(Math.min(actorX[actor], actorX[actor] + dx), Math.min(actorY[actor], actorY[actor] + dy),
+                tileSize + Math.abs(dx), tileSize + Math.abs(dy));
+    }
+
+    //whether mover, on its way from (fromX, fromY) to where it is now, went
+    //right over other without overlapping it at either end, which is the
+    //case actorsCollide() can't see. that takes a move of two tiles or more
+    boolean passesThrough(int mover, int fromX, int fromY, int other) {
+        int x = actorX[mover];
+        int y = actorY[mover];
+        int otherX = actorX[other];
+        int otherY = actorY[other];
+        if (overlaps(fromX, fromY, tileSize, tileSize, otherX, otherY, tileSize, tileSize)
+                || overlaps(x, y, tileSize, tileSize, otherX, otherY, tileSize, tileSize)) {
+            return false;
+        }
+        return overlaps(Math.min(fromX, x), Math.min(fromY, y), tileSize + Math.abs(x - fromX), tileSize + Math.abs(y - fromY),
+                otherX, otherY, tileSize, tileSize);
+    }
+
+    boolean actorsCollide(int a, int b) {
+        return overlaps(actorX[a], actorY[a], tileSize, tileSize, actorX[b], actorY[b], tileSize, tileSize);
+    }
+
+    public static boolean overlaps(int ax, int ay, int aw, int ah, int bx, int by, int bw, int bh) {
+        return  ax < bx + bw &&
+                ax + aw > bx &&
+                ay < by + bh &&
+                ay + ah > by;
+    }
+
+    public void resetPositions() {
+        actorX[PACMAN] = startX[PACMAN];
+        actorY[PACMAN] = startY[PACMAN];
+        velocityX[PACMAN] = 0;
+        velocityY[PACMAN] = 0;
+        desiredDirection = 0;
+        pacmanFromX = actorX[PACMAN];
+        pacmanFromY = actorY[PACMAN];
+
+        for (int ghost = 1; ghost < actorCount; ghost++) {
+            calmGhost(ghost);
+            actorX[ghost] = startX[ghost];
+            actorY[ghost] = startY[ghost];
+            char newDirection = directions[random.nextInt(4)];
+            updateDirection(ghost, newDirection);
+        }
+    }
+
+    //start a fresh game after game over
+    public void restart() {
+        restart(random.nextLong());
+    }
+
+    //start a fresh game that plays out exactly like new Game(level, seed)
+    public void restart(long seed) {
+        this.seed = seed;
+        random.setSeed(seed);
+        tick = 0;
+        //before the actors are placed: their velocities come from speed
+        lives = 3;
+        score = 0;
+        speed = 0;
+        lastSpeedIncreaseScore = 0;
+        killedBy = 0;
+        fruitsEaten = 0;
+        gameOver = false;
+        paused = false;
+        waitingForLevel = false;
+        if (mazes != null && levelNumber != 0) {
+            levelNumber = 0;
+            setLevel(mazes.level(0));
+        }
+        loadMap();
+        resetPositions();
+    }
+
+    public void togglePause() {
+        paused = !paused;
+    }
+
+    //make this game an exact copy of other. arrays are reused when they're
+    //the right size, so snapshotting into the same Game again doesn't allocate,
+    //and the layout is shared since it never changes
+    public void copyFrom(Game other) {
+        //stop borrowing from a fork's base, everything below is overwritten
+        if (sharedFood) {
+            foodBits = ownFoodBits;
+            sharedFood = false;
+        }
+        if (sharedFreeTiles) {
+            freeTiles = ownFreeTiles;
+            freeSlot = ownFreeSlot;
+            sharedFreeTiles = false;
+        }
+        if (sharedDistance) {
+            pacmanDistance = ownDistance;
+            sharedDistance = false;
+        }
+        copyState(other);
+
+        foodBits = copy(other.foodBits, foodBits);
+        fruitGrid = copy(other.fruitGrid, fruitGrid);
+        fruitTiles = copy(other.fruitTiles, fruitTiles);
+        fruitTimers = copy(other.fruitTimers, fruitTimers);
+        fruitCount = other.fruitCount;
+        freeTiles = copy(other.freeTiles, freeTiles);
+        freeSlot = copy(other.freeSlot, freeSlot);
+        mapVersion = other.mapVersion;
+        eatenFoodTiles = copy(other.eatenFoodTiles, eatenFoodTiles);
+        eatenFoodCount = other.eatenFoodCount;
+
+        if (pacmanDistance == null || pacmanDistance.wallGrid != wallGrid) {
+            pacmanDistance = new DistanceField(rowCount, columnCount, wallGrid);
+        }
+        else {
+            pacmanDistance.invalidate();
+        }
+    }
+
+    //make this game a copy of base that's cheap to make over and over, for
+    //trying moves out: it costs O(actors + fruits + timers) whatever the size
+    //of the maze. The food, the free tiles and the distance field are
+    //borrowed from base until this game changes them, so base must not change
+    //while this copy is in use. The log of eaten food starts over (and
+    //mapVersion moves on), as if the level had just been loaded
+    public void forkFrom(Game base) {
+        if (fruitGrid == null || fruitGrid.length != base.fruitGrid.length) {
+            copyFrom(base); // the first time, to have arrays of the right size
+            return;
+        }
+        if (!sharedFood) {
+            ownFoodBits = foodBits;
+        }
+        if (!sharedFreeTiles) {
+            ownFreeTiles = freeTiles;
+            ownFreeSlot = freeSlot;
+        }
+        if (!sharedDistance) {
+            ownDistance = pacmanDistance;
+        }
+        copyState(base);
+
+        foodBits = base.foodBits;
+        freeTiles = base.freeTiles;
+        freeSlot = base.freeSlot;
+        pacmanDistance = base.pacmanDistance;
+        sharedFood = true;
+        sharedFreeTiles = true;
+        sharedDistance = true;
+
+        //take this game's fruit off its grid and put base's on
+        while (fruitCount > 0) {
+            fruitGrid[fruitTiles[--fruitCount]] = 0;
+        }
+        for (int i = 0; i < base.fruitCount; i++) {
+            int tile = base.fruitTiles[i];
+            fruitTiles[i] = tile;
+            fruitTimers[i] = base.fruitTimers[i];
+            fruitGrid[tile] = base.fruitGrid[tile];
+        }
+        fruitCount = base.fruitCount;
+        eatenFoodCount = 0;
+        mapVersion = base.mapVersion + 1;
+    }
+
+    //everything copyFrom() and forkFrom() copy the same way: the layout (by
+    //reference) and everything that isn't per tile
+    private void copyState(Game other) {
+        rowCount = other.rowCount;
+        columnCount = other.columnCount;
+        tileSize = other.tileSize;
+        boardWidth = other.boardWidth;
+        boardHeight = other.boardHeight;
+        level = other.level; // never modified
+        mazes = other.mazes;
+        levelNumber = other.levelNumber;
+        waitingForLevel = other.waitingForLevel;
+        layoutLevel = other.layoutLevel;
+        wallGrid = other.wallGrid;
+        powerFoodGrid = other.powerFoodGrid;
+        foodTemplate = other.foodTemplate;
+        templateFoodCount = other.templateFoodCount;
+        freeTilesTemplate = other.freeTilesTemplate;
+        freeSlotTemplate = other.freeSlotTemplate;
+        templateFreeTileCount = other.templateFreeTileCount;
+
+        actorCount = other.actorCount;
+        ghostCount = other.ghostCount;
+        powerfulGhost = other.powerfulGhost;
+        houseY = other.houseY;
+        kind = copy(other.kind, kind);
+        actorX = copy(other.actorX, actorX);
+        actorY = copy(other.actorY, actorY);
+        startX = copy(other.startX, startX);
+        startY = copy(other.startY, startY);
+        velocityX = copy(other.velocityX, velocityX);
+        velocityY = copy(other.velocityY, velocityY);
+        direction = copy(other.direction, direction);
+        frightened = copy(other.frightened, frightened);
+        frightenedTimers = copy(other.frightenedTimers, frightenedTimers);
+        spawnExcluded = copy(other.spawnExcluded, spawnExcluded);
+        foodCount = other.foodCount;
+        freeTileCount = other.freeTileCount;
+
+        if (random == null) {
+            random = new GameRandom(0);
+        }
+        random.setState(other.random.getState());
+        seed = other.seed;
+        score = other.score;
+        lives = other.lives;
+        gameOver = other.gameOver;
+        paused = other.paused;
+        speed = other.speed;
+        lastSpeedIncreaseScore = other.lastSpeedIncreaseScore;
+        killedBy = other.killedBy;
+        fruitsEaten = other.fruitsEaten;
+        desiredDirection = other.desiredDirection;
+        pacmanFromX = other.pacmanFromX;
+        pacmanFromY = other.pacmanFromY;
+        tick = other.tick;
+        timers.copyFrom(other.timers);
+    }
+
+    //about to change the food: stop borrowing it, see forkFrom()
+    void ownFood() {
+        if (!sharedFood) return;
+        ownFoodBits = copy(foodBits, ownFoodBits);
+        foodBits = ownFoodBits;
+        sharedFood = false;
+    }
+
+    void ownFreeTiles() {
+        if (!sharedFreeTiles) return;
+        ownFreeTiles = copy(freeTiles, ownFreeTiles);
+        ownFreeSlot = copy(freeSlot, ownFreeSlot);
+        freeTiles = ownFreeTiles;
+        freeSlot = ownFreeSlot;
+        sharedFreeTiles = false;
+    }
+
+    //the distance field, computed for pacman's tile. A borrowed one is only
+    //used while it's for the same tile
+    DistanceField distanceToPacman() {
+        int tile = centerTile(PACMAN);
+        if (sharedDistance && pacmanDistance.source != tile) {
+            if (ownDistance == null || ownDistance.wallGrid != wallGrid) {
+                ownDistance = new DistanceField(rowCount, columnCount, wallGrid);
+            }
+            pacmanDistance = ownDistance;
+            sharedDistance = false;
+        }
+        pacmanDistance.compute(tile); // no-op unless pacman changed tile
+        return pacmanDistance;
+    }
+
+    private static int[] copy(int[] from, int[] to) {
+        if (to == null || to.length != from.length) return from.clone();
+        System.arraycopy(from, 0, to, 0, from.length);
+        return to;
+    }
+
+    private static long[] copy(long[] from, long[] to) {
+        if (to == null || to.length != from.length) return from.clone();
+        System.arraycopy(from, 0, to, 0, from.length);
+        return to;
+    }
+
+    private static char[] copy(char[] from, char[] to) {
+        if (to == null || to.length != from.length) return from.clone();
+        System.arraycopy(from, 0, to, 0, from.length);
+        return to;
+    }
+
+    private static boolean[] copy(boolean[] from, boolean[] to) {
+        if (to == null || to.length != from.length) return from.clone();
+        System.arraycopy(from, 0, to, 0, from.length);
+        return to;
+    }
+
+    private static byte[] copy(byte[] from, byte[] to) {
+        if (to == null || to.length != from.length) return from.clone();
+        System.arraycopy(from, 0, to, 0, from.length);
+        return to;
+    }
+}
@@ -0,0 +1,440 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+//Runs lots of headless games at once, each ticking in real time like the
+//window does, for tournaments and for checking games server side.
+//
+//Every session belongs to one worker thread for its whole life, so its Game
+//is only ever touched by that thread and stays hot in that core's cache. A
+//worker steps each of its sessions when the session's own tick deadline comes
+//round; deadlines are staggered so sessions don't all come due at once. A
+//session that falls more than MAX_CATCH_UP_TICKS behind skips the missed
+//ticks and they're counted as missed deadlines.
+//
+//Backpressure: a new session is refused (BUSY) when every worker already has
+//maxSessionsPerWorker sessions or is busy more than MAX_LOAD of the time, and
+//inputs beyond what a session's InputQueue holds are dropped.
+//
+//With -Dpacman.scoreDir set, every finished game's result is kept in the
+//ScoreStore there. Workers only submit() them, which never waits, so a store
+//that falls behind drops results (counted in its droppedResults) rather than
+//holding up every session's tick.
+//
+//Clients talk to the server over a loopback socket, one game per connection,
+//one command per line:
+//    NEW [seed]    start a game, or a new one once it's over  -> OK <session> | BUSY
+//    U, D, L, R    queue a direction
+//    STATE         -> STATE <tick> <score> <lives> <0|1 game over>
+//    QUIT          end the game and hang up
+//
+//usage: java GameServer [port] [workers]
+//       java GameServer bench [sessions] [workers] [seconds]  (agents play in process)
+public class GameServer {
+    static final long TICK_NANOS = PacMan.TICK_NANOS;
+    static final int MAX_CATCH_UP_TICKS = 5;
+    static final double MAX_LOAD = 0.8;
+    static final int STAGGER_SLOTS = 16;
+    static final int DEFAULT_PORT = 7777;
+    static final long ACCEPT_RETRY_NANOS = 100_000_000; // after failing to accept, so a full fd table isn't spun on
+
+    static class Session {
+        int id;
+        Game game;
+        Agent agent; // plays the session when there's no client
+        InputQueue inputs = new InputQueue();
+        long nextTick;
+        volatile boolean closed;
+
+        //copied out after every tick for the connection thread to read. They're
+        //written separately, so a reader can see them a tick apart
+        volatile long tick;
+        volatile int score;
+        volatile int lives;
+        volatile boolean gameOver;
+    }
+
+    class Worker implements Runnable {
+        ArrayList<Session> sessions = new ArrayList<>(); // only touched by this worker
+        ConcurrentLinkedQueue<Session> added = new ConcurrentLinkedQueue<>();
+        AtomicInteger sessionCount = new AtomicInteger();
+        volatile double load; // fraction of the last second spent stepping games
+
+        @Override
+        public void run() {
+            long windowStart = System.nanoTime();
+            long busyNanos = 0;
+            while (running) {
+                for (Session session = added.poll(); session != null; session = added.poll()) {
+                    sessions.add(session);
+                }
+
+                long now = System.nanoTime();
+                long wakeUp = now + TICK_NANOS;
+                for (int i = sessions.size() - 1; i >= 0; i--) {
+                    Session session = sessions.get(i);
+                    if (session.closed) {
+                        sessions.set(i, sessions.get(sessions.size() - 1));
+                        sessions.remove(sessions.size() - 1);
+                        sessionCount.decrementAndGet();
+                        continue;
+                    }
+                    int ticks = 0;
+                    while (now - session.nextTick >= 0) {
+                        step(session);
+                        session.nextTick += TICK_NANOS;
+                        if (++ticks == MAX_CATCH_UP_TICKS && now - session.nextTick >= 0) {
+                            long behind = (now - session.nextTick) / TICK_NANOS + 1;
+                            missedDeadlines.add(behind);
+                            session.nextTick += behind * TICK_NANOS;
+                        }
+                    }
+                    if (session.nextTick - wakeUp < 0) {
+                        wakeUp = session.nextTick;
+                    }
+                }
+
+                long end = System.nanoTime();
+                busyNanos += end - now;
+                if (end - windowStart >= 1_000_000_000L) {
+                    load = (double) busyNanos / (end - windowStart);
+                    windowStart = end;
+                    busyNanos = 0;
+                }
+                LockSupport.parkNanos(wakeUp - end);
+            }
+        }
+
+        void step(Session session) {
+            Game game = session.game;
+            char input = 0;
+            if (session.agent != null) {
+                input = session.agent.nextInput(game);
+            }
+            else {
+                for (int direction = session.inputs.poll(); direction != 0; direction = session.inputs.poll()) {
+                    input = (char) direction; // the last one wins, like in the window
+                }
+            }
+            boolean wasOver = game.gameOver;
+            game.step(input);
+            if (game.gameOver && !wasOver && store != null) {
+                store.submit(game);
+            }
+            if (game.gameOver && session.agent != null) {
+                game.restart(); // agent sessions keep playing, so load stays steady
+            }
+            ticks.increment();
+
+            session.tick = game.tick;
+            session.score = game.score;
+            session.lives = game.lives;
+            session.gameOver = game.gameOver;
+        }
+    }
+
+    Worker[] workers;
+    int maxSessionsPerWorker;
+    volatile boolean running;
+    AtomicInteger nextSessionId = new AtomicInteger();
+    LongAdder ticks = new LongAdder();
+    LongAdder missedDeadlines = new LongAdder();
+    LongAdder refused = new LongAdder();
+    ScoreStore store; // null unless -Dpacman.scoreDir is set
+
+    GameServer(int workerCount, int maxSessionsPerWorker) {
+        this.maxSessionsPerWorker = maxSessionsPerWorker;
+        workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker();
+        }
+    }
+
+    void start() {
+        running = true;
+        for (int i = 0; i < workers.length; i++) {
+            Thread thread = new Thread(workers[i], "game worker " + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    //start a game on the least busy worker, or null if they're all full
+    Session open(long seed, Agent agent) {
+        Worker worker = null;
+        for (Worker candidate : workers) {
+            if (candidate.sessionCount.get() < maxSessionsPerWorker && candidate.load < MAX_LOAD
+                    && (worker == null || candidate.sessionCount.get() < worker.sessionCount.get())) {
+                worker = candidate;
+            }
+        }
+        if (worker == null) {
+            refused.increment();
+            return null;
+        }
+
+        Session session = new Session();
+        session.id = nextSessionId.getAndIncrement();
+        session.game = new Game(seed);
+        session.agent = agent;
+        session.lives = session.game.lives;
+        session.nextTick = System.nanoTime() + (session.id % STAGGER_SLOTS) * (TICK_NANOS / STAGGER_SLOTS);
+        worker.sessionCount.incrementAndGet();
+        worker.added.add(session);
+        return session;
+    }
+
+    //one client connection, only touched by the selector thread
+    class Connection {
+        SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(256);
+        ByteBuffer out = ByteBuffer.allocate(4096);
+        Session session;
+
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            in.flip();
+            int lineStart = in.position();
+            for (int i = in.position(); i < in.limit(); i++) {
+                if (in.get(i) == '\n') {
+                    String line = new String(in.array(), lineStart, i - lineStart, StandardCharsets.US_ASCII).trim();
+                    lineStart = i + 1;
+                    handle(line);
+                    if (!channel.isOpen()) return;
+                }
+            }
+            in.position(lineStart);
+            in.compact();
+            if (!in.hasRemaining()) {
+                close(); // a line longer than the buffer isn't one of ours
+            }
+        }
+
+        void handle(String line) throws IOException {
+            if (line.isEmpty()) {
+                return;
+            }
+            char command = line.charAt(0);
+            if (line.length() == 1 && (command == 'U' || command == 'D' || command == 'L' || command == 'R')) {
+                if (session == null) {
+                    reply("ERR no game");
+                }
+                else {
+                    session.inputs.offer(command);
+                }
+            }
+            else if (line.startsWith("NEW")) {
+                if (session != null && !session.gameOver) {
+                    reply("ERR already playing");
+                    return;
+                }
+                if (session != null) {
+                    session.closed = true; // over, its worker drops it
+                    session = null;
+                }
+                long seed = line.length() > 3 ? Long.parseLong(line.substring(3).trim()) : System.nanoTime();
+                session = open(seed, null);
+                reply(session == null ? "BUSY" : "OK " + session.id);
+            }
+            else if (line.equals("STATE")) {
+                if (session == null) {
+                    reply("ERR no game");
+                }
+                else {
+                    reply("STATE " + session.tick + " " + session.score + " " + session.lives + " "
+                            + (session.gameOver ? 1 : 0));
+                }
+            }
+            else if (line.equals("QUIT")) {
+                close();
+            }
+            else {
+                reply("ERR unknown command");
+            }
+        }
+
+        void reply(String line) throws IOException {
+            byte[] bytes = (line + "\n").getBytes(StandardCharsets.US_ASCII);
+            if (out.remaining() < bytes.length) {
+                close(); // not reading its replies, don't buffer for it forever
+                return;
+            }
+            out.put(bytes);
+            flush();
+        }
+
+        void flush() throws IOException {
+            out.flip();
+            channel.write(out);
+            out.compact();
+            key.interestOps(out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        void close() throws IOException {
+            if (session != null) {
+                session.closed = true;
+            }
+            key.cancel();
+            channel.close();
+        }
+
+        //close() for a connection that's already broken, where failing to
+        //close it too isn't worth stopping the server over
+        void closeQuietly() {
+            try {
+                close();
+            } catch (IOException e) {
+                // it's gone either way
+            }
+        }
+    }
+
+    //accept clients on the loopback interface until stop() is called
+    void serve(int port) throws IOException {
+        try (Selector selector = Selector.open(); ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            server.configureBlocking(false);
+            SelectionKey acceptKey = server.register(selector, SelectionKey.OP_ACCEPT);
+            long acceptAgainAt = 0;
+            while (running) {
+                selector.select(100);
+                if (acceptKey.interestOps() == 0 && System.nanoTime() - acceptAgainAt >= 0) {
+                    acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        if (!accept(server, selector)) {
+                            //the client's still waiting to be accepted, leave it a while
+                            //instead of failing on it again straight away
+                            acceptKey.interestOps(0);
+                            acceptAgainAt = System.nanoTime() + ACCEPT_RETRY_NANOS;
+                        }
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        connection.closeQuietly(); // a bad or broken client only loses its own game
+                    }
+                }
+            }
+        }
+    }
+
+    //take a new client, returns false if that failed (out of file descriptors
+    //under load, say). That only keeps the client waiting, the server keeps going
+    boolean accept(ServerSocketChannel server, Selector selector) {
+        SocketChannel channel = null;
+        try {
+            channel = server.accept();
+            if (channel == null) return true;
+            channel.configureBlocking(false);
+            Connection connection = new Connection();
+            connection.channel = channel;
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Couldn't accept a client: " + e);
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException closing) {
+                    // nothing more to do for it
+                }
+            }
+            return false;
+        }
+    }
+
+    void report(double seconds, int sessions) {
+        long expected = (long) (sessions * seconds * 1e9 / TICK_NANOS);
+        System.out.println("sessions: " + sessions + " on " + workers.length + " workers, refused " + refused.sum());
+        System.out.println("ticks: " + ticks.sum() + " in " + String.format("%.1f", seconds) + "s (deadlines due ~"
+                + expected + "), missed " + missedDeadlines.sum());
+        System.out.print("worker load:");
+        for (Worker worker : workers) {
+            System.out.print(String.format(" %.2f", worker.load));
+        }
+        System.out.println();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("bench")) {
+            int sessions = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+            int workerCount = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+            int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+            GameServer server = new GameServer(workerCount, sessions);
+            server.store = ScoreStore.fromProperty(null);
+            server.start();
+            int opened = 0;
+            for (int i = 0; i < sessions; i++) {
+                if (server.open(i, Agent.random(i)) != null) {
+                    opened++;
+                }
+            }
+            long start = System.nanoTime();
+            Thread.sleep(seconds * 1000L);
+            server.stop();
+            server.report((System.nanoTime() - start) / 1e9, opened);
+            if (server.store != null) {
+                server.store.close();
+                System.out.println("scores: " + server.store.totals()[ScoreStore.GAMES] + " games kept, "
+                        + server.store.droppedResults.sum() + " dropped");
+            }
+            return;
+        }
+
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int workerCount = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        GameServer server = new GameServer(workerCount, 10_000);
+        server.store = ScoreStore.fromProperty(null);
+        if (server.store != null) {
+            ScoreStore store = server.store;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    store.close();
+                } catch (IOException e) {
+                    System.err.println("Couldn't save the scores: " + e);
+                }
+                long dropped = store.droppedResults.sum();
+                if (dropped > 0) {
+                    System.err.println(dropped + " game results were dropped, the score store fell behind");
+                }
+            }));
+        }
+        server.start();
+        System.out.println("serving games on localhost:" + port);
+        server.serve(port);
+    }
+}
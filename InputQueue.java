@@ -0,0 +1,37 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Inputs on their way from one thread to another: key codes from the EDT to
+//the game loop, or directions from a client connection to a GameServer
+//worker. A ring buffer with one writer and one reader, so neither side ever
+//takes a lock or waits for the other: the writer publishes a key by moving
+//tail, the reader frees a slot by moving head. When the reader falls behind
+//and the ring fills up, new keys are dropped.
+public class InputQueue {
+    static final int CAPACITY = 64; // a power of two
+
+    int[] keys = new int[CAPACITY];
+    AtomicInteger head = new AtomicInteger(); // next key to read
+    AtomicInteger tail = new AtomicInteger(); // next slot to write
+
+    //called from the writer thread only, returns false if the queue was full
+    boolean offer(int keyCode) {
+        int t = tail.get();
+        if (t - head.get() == CAPACITY) {
+            return false;
+        }
+        keys[t & (CAPACITY - 1)] = keyCode;
+        tail.lazySet(t + 1); // publishes the key written above
+        return true;
+    }
+
+    //called from the reader thread only, returns 0 if there's nothing queued
+    int poll() {
+        int h = head.get();
+        if (h == tail.get()) {
+            return 0;
+        }
+        int keyCode = keys[h & (CAPACITY - 1)];
+        head.lazySet(h + 1);
+        return keyCode;
+    }
+}
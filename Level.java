@@ -0,0 +1,187 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+//A maze, in the same letters as Game.DEFAULT_TILE_MAP.
+//
+//Levels come from a text file (one row per line) or from the binary .pml
+//form: a 13 byte header (magic, version, rows, columns) followed by one byte
+//per tile, row by row. Binary levels are memory-mapped a chunk of rows at a
+//time to be copied out, so there's no text to split and no line per row, but
+//the game still reads every tile when it starts: a level is held in memory
+//and is only as big as that allows.
+//
+//usage: java Level in.txt out.pml (convert a text level to binary)
+public abstract class Level {
+    static final int MAGIC = 0x504D4C56; // "PMLV"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 13;
+    static final int CHUNK_BYTES = 64 << 20; // at most 64MB mapped per chunk
+
+    int rowCount;
+    int columnCount;
+
+    abstract char tile(int r, int c);
+
+    public static Level of(String[] tileMap) {
+        return new TextLevel(tileMap);
+    }
+
+    //a .pml file is memory-mapped (and unmapped once it's copied), anything
+    //else is read as text
+    public static Level load(Path path) throws IOException {
+        if (path.toString().endsWith(".pml")) {
+            try (MappedLevel mapped = new MappedLevel(path)) {
+                return of(mapped.toTileMap());
+            }
+        }
+        List<String> rows = new ArrayList<>();
+        for (String line : Files.readAllLines(path, StandardCharsets.US_ASCII)) {
+            if (!line.isEmpty()) {
+                rows.add(line);
+            }
+        }
+        return of(rows.toArray(new String[0]));
+    }
+
+    public void writeBinary(Path path) throws IOException {
+        try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(path))) {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(rowCount);
+            out.writeInt(columnCount);
+            byte[] row = new byte[columnCount];
+            for (int r = 0; r < rowCount; r++) {
+                for (int c = 0; c < columnCount; c++) {
+                    row[c] = (byte) tile(r, c);
+                }
+                out.write(row);
+            }
+            out.flush();
+        }
+    }
+
+    //the rows as strings, for small levels (e.g. to store in a Recording)
+    public String[] toTileMap() {
+        String[] tileMap = new String[rowCount];
+        char[] row = new char[columnCount];
+        for (int r = 0; r < rowCount; r++) {
+            for (int c = 0; c < columnCount; c++) {
+                row[c] = tile(r, c);
+            }
+            tileMap[r] = new String(row);
+        }
+        return tileMap;
+    }
+
+    static class TextLevel extends Level {
+        String[] tileMap;
+
+        TextLevel(String[] tileMap) {
+            if (tileMap.length == 0 || tileMap[0].isEmpty()) {
+                throw new IllegalArgumentException("a level needs at least one row and column");
+            }
+            for (String row : tileMap) {
+                if (row.length() != tileMap[0].length()) {
+                    throw new IllegalArgumentException("level rows must all be the same length");
+                }
+            }
+            this.tileMap = tileMap;
+            this.rowCount = tileMap.length;
+            this.columnCount = tileMap[0].length();
+        }
+
+        char tile(int r, int c) {
+            return tileMap[r].charAt(c);
+        }
+    }
+
+    static class MappedLevel extends Level implements AutoCloseable {
+        FileChannel channel;
+        int chunkRows;
+        MappedByteBuffer[] chunks;
+
+        MappedLevel(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                readHeader(path);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private void readHeader(Path path) throws IOException {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException(path + " is not a Pac-Man level");
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            header.order(ByteOrder.BIG_ENDIAN);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(path + " is not a Pac-Man level");
+            }
+            int version = header.get();
+            if (version != VERSION) {
+                throw new IOException("unsupported level version " + version);
+            }
+            rowCount = header.getInt();
+            columnCount = header.getInt();
+            if (rowCount <= 0 || columnCount <= 0) {
+                throw new IOException(path + " has a " + rowCount + "x" + columnCount + " maze");
+            }
+            //the game keeps a flag per tile in an array
+            if ((long) rowCount * columnCount > Integer.MAX_VALUE - 8) {
+                throw new IOException(path + " is too big, " + rowCount + "x" + columnCount);
+            }
+            if (channel.size() < HEADER_SIZE + (long) rowCount * columnCount) {
+                throw new IOException(path + " is truncated");
+            }
+            chunkRows = Math.max(1, CHUNK_BYTES / columnCount);
+            chunks = new MappedByteBuffer[(rowCount + chunkRows - 1) / chunkRows];
+        }
+
+        char tile(int r, int c) {
+            int chunk = r / chunkRows;
+            MappedByteBuffer buffer = chunks[chunk];
+            if (buffer == null) {
+                buffer = mapChunk(chunk);
+            }
+            return (char) buffer.get((r - chunk * chunkRows) * columnCount + c);
+        }
+
+        private MappedByteBuffer mapChunk(int chunk) {
+            int firstRow = chunk * chunkRows;
+            int rows = Math.min(chunkRows, rowCount - firstRow);
+            try {
+                chunks[chunk] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_SIZE + (long) firstRow * columnCount, (long) rows * columnCount);
+            } catch (IOException e) {
+                throw new RuntimeException("couldn't map rows " + firstRow + "-" + (firstRow + rows), e);
+            }
+            return chunks[chunk];
+        }
+
+        //the mappings go when they're collected, but the file is closed now
+        public void close() throws IOException {
+            chunks = null;
+            channel.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Level level = load(Path.of(args[0]));
+        level.writeBinary(Path.of(args[1]));
+        System.out.println("wrote " + level.rowCount + "x" + level.columnCount + " level to " + args[1]);
+    }
+}
@@ -0,0 +1,373 @@
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+
+//Makes new mazes, any size from MIN_SIZE up, in the same letters as
+//Game.DEFAULT_TILE_MAP: left-right symmetric, no dead ends, a ghost house in
+//the middle and pacman below it.
+//
+//A maze is carved on the left half only and mirrored: a random depth-first
+//maze through the cells (the tiles with odd row and column), some doors
+//through the middle so the halves join up, then every dead end knocked
+//through to a neighbour, which gives the loops Pac-Man needs. The ghost
+//house goes over the middle with a corridor all round it.
+//
+//Each level is the best of CANDIDATES mazes made in parallel. A candidate
+//only counts if a flood fill from pacman reaches every food and the ghost
+//house (the grid is undirected, so that's also the ghosts reaching all of
+//it), and the best is the one with the most junctions, the fewest dead ends
+//and the fewest open 2x2 squares. The whole sequence follows from the seed,
+//so a game on generated levels replays like any other.
+//
+//usage: java MazeGenerator [rows] [columns] [seed] [out.txt | out.pml]
+public class MazeGenerator {
+    static final int MIN_SIZE = 11; // room for the ghost house, its corridor and a row of maze round that
+    static final int CANDIDATES = 4;
+    static final int DOOR_CHANCE = 3; // one in DOOR_CHANCE rows gets a door through the middle
+    static final int POWER_FOOD_SPACING = 16; // tiles between power foods, the four corners at the classic size
+
+    static final byte WALL = 'X';
+    static final byte FOOD = ' ';
+    static final byte EMPTY = 'O';
+
+    long seed;
+    int rowCount;
+    int columnCount;
+    ForkJoinPool pool;
+
+    //levels being made or made already, by number. level(n) starts on n + 1,
+    //so the next level is usually ready by the time the current one's been cleared
+    HashMap<Integer, ForkJoinTask<Level>> levels = new HashMap<>();
+
+    MazeGenerator(long seed, int rowCount, int columnCount, int threads) {
+        if (rowCount < MIN_SIZE || columnCount < MIN_SIZE) {
+            throw new IllegalArgumentException("mazes must be at least " + MIN_SIZE + "x" + MIN_SIZE
+                    + ", not " + rowCount + "x" + columnCount);
+        }
+        this.seed = seed;
+        this.rowCount = rowCount;
+        this.columnCount = columnCount;
+        pool = new ForkJoinPool(threads);
+    }
+
+    MazeGenerator(long seed, int rowCount, int columnCount) {
+        this(seed, rowCount, columnCount, Runtime.getRuntime().availableProcessors());
+    }
+
+    //level n of this generator's sequence (0 is the first), waiting for it
+    //to be made if it isn't yet
+    Level level(int n) {
+        return prepare(n).join(); // not holding the lock, so levelIfReady() never waits on this
+    }
+
+    //level n if it's been made, else null (and it's on the way), without waiting
+    Level levelIfReady(int n) {
+        ForkJoinTask<Level> level = prepare(n);
+        return level.isDone() ? level.join() : null;
+    }
+
+    //level n's task, started along with n + 1 if they aren't already. Levels
+    //before n are forgotten, except the first since a restart goes back to it
+    private synchronized ForkJoinTask<Level> prepare(int n) {
+        ForkJoinTask<Level> level = levels.get(n);
+        if (level == null) {
+            level = start(n);
+        }
+        if (!levels.containsKey(n + 1)) {
+            start(n + 1);
+        }
+        levels.keySet().removeIf(number -> number < n && number != 0);
+        return level;
+    }
+
+    private ForkJoinTask<Level> start(int n) {
+        ForkJoinTask<Level> level = pool.submit(() -> generate(seed + n * 0x9E3779B97F4A7C15L));
+        levels.put(n, level);
+        return level;
+    }
+
+    //the best of CANDIDATES mazes made from levelSeed
+    Level generate(long levelSeed) {
+        Maze best = IntStream.range(0, CANDIDATES).parallel()
+                .mapToObj(i -> new Maze(levelSeed * 31 + i))
+                .filter(maze -> maze.valid)
+                .reduce(null, (a, b) -> a == null || b.score > a.score ? b : a);
+        if (best == null) {
+            throw new IllegalStateException("no valid " + rowCount + "x" + columnCount + " maze from seed " + levelSeed);
+        }
+        return best.toLevel();
+    }
+
+    //one candidate, made and scored as soon as it's constructed
+    class Maze {
+        byte[] tiles = new byte[rowCount * columnCount];
+        GameRandom random;
+        int half = (columnCount - 1) / 2; // the last column of the left half (the middle one if there's one)
+        int houseRow = ((rowCount - 1) / 2) | 1; // on a row of cells, so the corridor round it meets the maze
+        int pacmanTile;
+        boolean valid;
+        long score;
+
+        Maze(long seed) {
+            random = new GameRandom(seed);
+            Arrays.fill(tiles, WALL);
+            carve();
+            addDoors();
+            braid();
+            addGhostHouse();
+            addPowerFood();
+            placePacman();
+            check();
+        }
+
+        int mirror(int c) {
+            return columnCount - 1 - c;
+        }
+
+        //set a tile and its mirror image
+        void set(int r, int c, byte tile) {
+            tiles[r * columnCount + c] = tile;
+            tiles[r * columnCount + mirror(c)] = tile;
+        }
+
+        boolean isOpen(int r, int c) {
+            return r >= 0 && c >= 0 && r < rowCount && c < columnCount && tiles[r * columnCount + c] != WALL;
+        }
+
+        boolean isCell(int r, int c) {
+            return r >= 1 && r <= rowCount - 2 && c >= 1 && c <= columnCount - 2 && (r & 1) == 1 && (c & 1) == 1;
+        }
+
+        //a random depth-first maze through the cells of the left half. The
+        //stack holds cells as r * columnCount + c
+        void carve() {
+            int[] stack = new int[(rowCount / 2 + 1) * (half / 2 + 1)];
+            int[] options = new int[4];
+            boolean[] visited = new boolean[rowCount * columnCount];
+            int depth = 0;
+            stack[depth++] = columnCount + 1;
+            visited[columnCount + 1] = true;
+            set(1, 1, FOOD);
+            while (depth > 0) {
+                int cell = stack[depth - 1];
+                int r = cell / columnCount;
+                int c = cell % columnCount;
+                int count = 0;
+                if (r >= 3 && !visited[cell - 2 * columnCount]) options[count++] = -2 * columnCount;
+                if (r + 2 <= rowCount - 2 && !visited[cell + 2 * columnCount]) options[count++] = 2 * columnCount;
+                if (c >= 3 && !visited[cell - 2]) options[count++] = -2;
+                if (c + 2 <= half && !visited[cell + 2]) options[count++] = 2;
+                if (count == 0) {
+                    depth--;
+                    continue;
+                }
+                int step = options[random.nextInt(count)];
+                int next = cell + step;
+                visited[next] = true;
+                int between = cell + step / 2;
+                set(between / columnCount, between % columnCount, FOOD);
+                set(next / columnCount, next % columnCount, FOOD);
+                stack[depth++] = next;
+            }
+        }
+
+        //join the halves: where the last cells of the left half aren't next to
+        //their mirror images, open some rows right through the middle
+        void addDoors() {
+            int lastCell = (half & 1) == 1 ? half : half - 1;
+            if (mirror(lastCell) - lastCell <= 1) {
+                return; // the same cells, or side by side: already joined everywhere
+            }
+            boolean any = false;
+            for (int r = 1; r <= rowCount - 2; r += 2) {
+                if (random.nextInt(DOOR_CHANCE) == 0) {
+                    openRow(r, lastCell);
+                    any = true;
+                }
+            }
+            if (!any) {
+                openRow(1 + 2 * random.nextInt((rowCount - 1) / 2), lastCell);
+            }
+        }
+
+        void openRow(int r, int from) {
+            for (int c = from; c <= half; c++) {
+                set(r, c, FOOD);
+            }
+        }
+
+        //knock every dead end through to another cell, so there are no dead
+        //ends to get trapped in
+        void braid() {
+            int[] walls = new int[4];
+            for (int r = 1; r <= rowCount - 2; r += 2) {
+                for (int c = 1; c <= half; c += 2) {
+                    if (openNeighbours(r, c) != 1) continue;
+                    int count = 0;
+                    if (!isOpen(r - 1, c) && isCell(r - 2, c)) walls[count++] = 0;
+                    if (!isOpen(r + 1, c) && isCell(r + 2, c)) walls[count++] = 1;
+                    if (!isOpen(r, c - 1) && isCell(r, c - 2)) walls[count++] = 2;
+                    if (!isOpen(r, c + 1) && isCell(r, c + 2)) walls[count++] = 3;
+                    if (count == 0) continue;
+                    int wall = walls[random.nextInt(count)];
+                    if (wall == 0) set(r - 1, c, FOOD);
+                    else if (wall == 1) set(r + 1, c, FOOD);
+                    else if (wall == 2) set(r, c - 1, FOOD);
+                    else if (c + 1 <= half) set(r, c + 1, FOOD);
+                    else set(r, mirror(c + 1), FOOD); // the wall between a middle cell and its mirror's neighbour
+                }
+            }
+        }
+
+        int openNeighbours(int r, int c) {
+            return (isOpen(r - 1, c) ? 1 : 0) + (isOpen(r + 1, c) ? 1 : 0)
+                    + (isOpen(r, c - 1) ? 1 : 0) + (isOpen(r, c + 1) ? 1 : 0);
+        }
+
+        //the ghost house over the middle, like the classic one: walls round a
+        //row for the ghosts, a gap at the top with a ghost in it, and a
+        //corridor all round so nothing the house covers gets cut off
+        void addGhostHouse() {
+            for (int r = houseRow - 2; r <= houseRow + 2; r++) {
+                for (int c = half - 4; c <= half; c++) {
+                    boolean ring = r == houseRow - 2 || r == houseRow + 2 || c == half - 4;
+                    boolean houseWall = r == houseRow - 1 || r == houseRow + 1 || c == half - 3;
+                    set(r, c, ring ? FOOD : houseWall ? WALL : EMPTY);
+                }
+            }
+            set(houseRow - 1, half, EMPTY); // the way out
+            tiles[(houseRow - 1) * columnCount + half] = 'r';
+            tiles[houseRow * columnCount + half - 1] = 'b';
+            tiles[houseRow * columnCount + half] = 'p';
+            tiles[houseRow * columnCount + half + 1] = 'o';
+            tiles[houseRow * columnCount + mirror(half - 4)] = 'g'; // outside, on the corridor's right side
+        }
+
+        void addPowerFood() {
+            for (int r = 1; r <= rowCount - 2; r += POWER_FOOD_SPACING) {
+                for (int c = 1; c <= half; c += POWER_FOOD_SPACING) {
+                    if (tiles[r * columnCount + c] == FOOD) {
+                        set(r, c, (byte) '*');
+                    }
+                }
+            }
+        }
+
+        //pacman on the food nearest the middle column halfway between the
+        //house and the bottom, like in the classic maze, and never on the
+        //corridor round the house where the ghosts come out
+        void placePacman() {
+            int top = houseRow + 3;
+            int r0 = Math.max(top, (houseRow + rowCount) / 2);
+            for (int d = 0; d < rowCount + columnCount; d++) {
+                for (int r = Math.max(top, r0 - d); r <= Math.min(rowCount - 2, r0 + d); r++) {
+                    for (int c = Math.max(1, half - d); c <= Math.min(columnCount - 2, half + d); c++) {
+                        boolean edge = Math.abs(r - r0) == d || Math.abs(c - half) == d;
+                        if (edge && tiles[r * columnCount + c] == FOOD) {
+                            pacmanTile = r * columnCount + c;
+                            tiles[pacmanTile] = 'P';
+                            return;
+                        }
+                    }
+                }
+            }
+            pacmanTile = -1; // nowhere to put pacman, so check() won't pass it
+        }
+
+        //flood fill from pacman, then score what it found
+        void check() {
+            if (pacmanTile < 0) {
+                return;
+            }
+            boolean[] reached = new boolean[tiles.length];
+            int[] queue = new int[tiles.length];
+            int head = 0;
+            int tail = 0;
+            reached[pacmanTile] = true;
+            queue[tail++] = pacmanTile;
+            while (head < tail) {
+                int tile = queue[head++];
+                int r = tile / columnCount;
+                int c = tile % columnCount;
+                if (r > 0) tail = visit(tile - columnCount, reached, queue, tail);
+                if (r < rowCount - 1) tail = visit(tile + columnCount, reached, queue, tail);
+                if (c > 0) tail = visit(tile - 1, reached, queue, tail);
+                if (c < columnCount - 1) tail = visit(tile + 1, reached, queue, tail);
+            }
+
+            int junctions = 0;
+            int deadEnds = 0;
+            int openSquares = 0;
+            for (int r = 0; r < rowCount; r++) {
+                for (int c = 0; c < columnCount; c++) {
+                    int tile = r * columnCount + c;
+                    byte letter = tiles[tile];
+                    if (letter == WALL) continue;
+                    if (!reached[tile]) {
+                        return; // food or a ghost that can't be got to
+                    }
+                    if (letter == FOOD || letter == '*') {
+                        int neighbours = openNeighbours(r, c);
+                        if (neighbours >= 3) junctions++;
+                        if (neighbours == 1) deadEnds++;
+                    }
+                    if (isOpen(r + 1, c) && isOpen(r, c + 1) && isOpen(r + 1, c + 1)) {
+                        openSquares++;
+                    }
+                }
+            }
+            valid = true;
+            score = junctions - 2L * openSquares - 4L * deadEnds;
+        }
+
+        private int visit(int tile, boolean[] reached, int[] queue, int tail) {
+            if (tiles[tile] != WALL && !reached[tile]) {
+                reached[tile] = true;
+                queue[tail++] = tile;
+            }
+            return tail;
+        }
+
+        Level toLevel() {
+            String[] tileMap = new String[rowCount];
+            for (int r = 0; r < rowCount; r++) {
+                tileMap[r] = new String(tiles, r * columnCount, columnCount, StandardCharsets.US_ASCII);
+            }
+            return Level.of(tileMap);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 21;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 19;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : System.nanoTime();
+
+        MazeGenerator generator = new MazeGenerator(seed, rows, columns);
+        long start = System.nanoTime();
+        Level level = generator.generate(seed);
+        double millis = (System.nanoTime() - start) / 1e6;
+
+        if (args.length > 3) {
+            Path path = Path.of(args[3]);
+            if (path.toString().endsWith(".pml")) {
+                level.writeBinary(path);
+            }
+            else {
+                Files.write(path, String.join("\n", level.toTileMap()).concat("\n").getBytes(StandardCharsets.US_ASCII));
+            }
+            System.out.println("wrote " + rows + "x" + columns + " maze to " + path + String.format(" (%.1f ms)", millis));
+        }
+        else {
+            for (String row : level.toTileMap()) {
+                System.out.println(row);
+            }
+            System.err.println(String.format("%.1f ms", millis));
+        }
+        generator.pool.shutdown();
+    }
+}
@@ -0,0 +1,103 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+//Timings of the parts of a frame that can make it hitch, so a slow frame can
+//be pinned on the simulation, painting or the GC. Turned on with
+//-Dpacman.metrics=true; ENABLED is a constant, so when it's off the JIT drops
+//the timing code entirely.
+//
+//Each timed section goes into a Histogram and, while a Flight Recorder
+//recording is running, a pacman.Section event (java -XX:StartFlightRecording).
+//The in-game overlay (M key) shows p50/p99, and -Dpacman.metricsFile=path
+//writes every histogram there when the JVM exits.
+//
+//usage:
+//    long start = Metrics.start();
+//    ...
+//    Metrics.stop(Metrics.MOVE, start);
+public class Metrics {
+    static final boolean ENABLED = Boolean.getBoolean("pacman.metrics");
+
+    static final Histogram TICK = new Histogram("tick"); // a whole PacMan.tick()
+    static final Histogram MOVE = new Histogram("move");
+    static final Histogram LOAD_MAP = new Histogram("loadMap");
+    static final Histogram SPAWN_FRUIT = new Histogram("spawnRandomFruit");
+    static final Histogram DRAW = new Histogram("draw");
+    static final Histogram FRAME = new Histogram("frame"); // time between frames shown
+    static final Histogram[] ALL = {TICK, MOVE, LOAD_MAP, SPAWN_FRUIT, DRAW, FRAME};
+
+    @Name("pacman.Section")
+    @Label("Game Section")
+    @Category("Pac-Man")
+    @StackTrace(false) // there are millions of these, and the section says where it came from
+    static class SectionEvent extends Event {
+        @Label("Section")
+        String section;
+
+        @Label("Elapsed")
+        @Timespan
+        long elapsed; // not "duration", JFR has its own field by that name
+    }
+
+    static {
+        String file = System.getProperty("pacman.metricsFile");
+        if (ENABLED && file != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try (PrintStream out = new PrintStream(new FileOutputStream(file))) {
+                    dump(out);
+                } catch (IOException e) {
+                    System.err.println("Couldn't write metrics to " + file + ": " + e);
+                }
+            }, "metrics dump"));
+        }
+    }
+
+    static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    static void stop(Histogram histogram, long start) {
+        if (ENABLED) {
+            record(histogram, System.nanoTime() - start);
+        }
+    }
+
+    static void record(Histogram histogram, long nanos) {
+        if (!ENABLED) return;
+        histogram.record(nanos);
+        SectionEvent event = new SectionEvent();
+        if (event.isEnabled()) {
+            event.section = histogram.name;
+            event.elapsed = nanos;
+            event.commit();
+        }
+    }
+
+    //total time spent in GC since the JVM started, in milliseconds
+    static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    static void dump(PrintStream out) {
+        out.println("section            count      p50(us)    p90(us)    p99(us)    max(us)");
+        for (Histogram histogram : ALL) {
+            out.println(String.format("%-16s %8d %10.1f %10.1f %10.1f %10.1f", histogram.name, histogram.count.get(),
+                    histogram.percentile(0.5) / 1e3, histogram.percentile(0.9) / 1e3,
+                    histogram.percentile(0.99) / 1e3, histogram.max.get() / 1e3));
+        }
+        out.println("gc: " + gcMillis() + "ms total");
+    }
+}
@@ -0,0 +1,129 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+//Plays by looking ahead: for each direction it forks the game over and over,
+//presses that direction in the fork and plays on for ROLLOUT_TICKS with
+//random keys, then goes the way whose forks did best on average. Forks are
+//cheap (Game.forkFrom()), the rollouts are spread over every thread, and they
+//stop at the deadline, so a decision fits in a tick.
+//
+//The forks don't get to see the real game's dice: every rollout reseeds its
+//fork, so the ghosts move the way they might rather than the way they will.
+//
+//The window's autopilot (A) uses it, and BatchRunner as a baseline that
+//actually tries to win.
+public class MonteCarloAgent implements Agent {
+    static final char[] DIRECTIONS = {'U', 'D', 'L', 'R'};
+    static final int ROLLOUT_TICKS = 40; // 2 seconds ahead
+    static final int LIFE_LOST_PENALTY = 1000; // in points
+    static final long DEFAULT_BUDGET_NANOS = PacMan.TICK_NANOS / 2; // leaves the rest of the tick for drawing
+    static final int DEFAULT_ROLLOUTS = 256; // per direction, if there's time
+
+    //one thread's rollouts, and the fork it plays them in
+    static class Worker {
+        Game fork;
+        GameRandom dice = new GameRandom(0);
+        long[] total = new long[DIRECTIONS.length];
+        int[] count = new int[DIRECTIONS.length];
+    }
+
+    long seed;
+    int threads;
+    int rolloutsPerDirection;
+    long budgetNanos; // 0 for no deadline: every rollout is played, so decisions can be replayed
+    ForkJoinPool pool; // null for one thread, which plays on the caller's
+    Worker[] workers;
+    long decisions;
+
+    MonteCarloAgent(long seed, int threads, int rolloutsPerDirection, long budgetNanos) {
+        this.seed = seed;
+        this.threads = threads;
+        this.rolloutsPerDirection = rolloutsPerDirection;
+        this.budgetNanos = budgetNanos;
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker();
+        }
+        if (threads > 1) {
+            pool = new ForkJoinPool(threads);
+        }
+    }
+
+    //as many rollouts as fit in half a tick, on every core
+    static MonteCarloAgent realTime(long seed) {
+        return new MonteCarloAgent(seed, Runtime.getRuntime().availableProcessors(), DEFAULT_ROLLOUTS, DEFAULT_BUDGET_NANOS);
+    }
+
+    @Override
+    public char nextInput(Game game) {
+        if (game.gameOver || game.paused) {
+            return 0;
+        }
+        long deadline = System.nanoTime() + budgetNanos;
+        if (pool == null) {
+            play(0, game, deadline);
+        }
+        else {
+            pool.submit(() -> IntStream.range(0, threads).parallel().forEach(w -> play(w, game, deadline))).join();
+        }
+        decisions++;
+
+        //the best average, by cross-multiplying so there's no division
+        int best = -1;
+        long bestTotal = 0;
+        int bestCount = 0;
+        for (int d = 0; d < DIRECTIONS.length; d++) {
+            long total = 0;
+            int count = 0;
+            for (Worker worker : workers) {
+                total += worker.total[d];
+                count += worker.count[d];
+            }
+            if (count > 0 && (best < 0 || total * bestCount > bestTotal * count)) {
+                best = d;
+                bestTotal = total;
+                bestCount = count;
+            }
+        }
+        if (best < 0) {
+            return 0; // no time for even one rollout
+        }
+        char direction = DIRECTIONS[best];
+        return direction == game.direction[Game.PACMAN] && game.desiredDirection == 0 ? 0 : direction;
+    }
+
+    //worker w's share of the rollouts: every threads'th one, so each worker
+    //goes round all the directions and they finish together at a deadline
+    void play(int w, Game game, long deadline) {
+        Worker worker = workers[w];
+        for (int d = 0; d < DIRECTIONS.length; d++) {
+            worker.total[d] = 0;
+            worker.count[d] = 0;
+        }
+        for (int i = w; i < rolloutsPerDirection * DIRECTIONS.length; i += threads) {
+            if (budgetNanos > 0 && System.nanoTime() - deadline >= 0) {
+                break;
+            }
+            int d = (i / threads) % DIRECTIONS.length;
+            worker.dice.setSeed(seed + decisions * 0x9E3779B97F4A7C15L + i);
+            worker.total[d] += rollout(worker, game, DIRECTIONS[d]);
+            worker.count[d]++;
+        }
+    }
+
+    //how a fork of game does in the next ROLLOUT_TICKS after pressing direction
+    long rollout(Worker worker, Game game, char direction) {
+        if (worker.fork == null) {
+            worker.fork = new Game(game);
+        }
+        Game fork = worker.fork;
+        fork.forkFrom(game);
+        fork.random.setSeed(worker.dice.nextLong());
+
+        fork.step(direction);
+        for (int t = 1; t < ROLLOUT_TICKS && !fork.gameOver && fork.lives == game.lives; t++) {
+            fork.step(worker.dice.nextInt(8) == 0 ? DIRECTIONS[worker.dice.nextInt(4)] : 0);
+        }
+        return fork.score - game.score - (long) LIFE_LOST_PENALTY * (game.lives - fork.lives);
+    }
+}
@@ -1,616 +1,664 @@
 import java.awt.*;
 import java.awt.event.*;
-import java.util.HashSet;
-import java.util.Random;
-import javax.swing.*;
-
-public class PacMan extends JPanel implements ActionListener, KeyListener {
-    class Block {
-        int x;
-        int y;
-        int width;
-        int height;
-        Image image;
-
-        int startX;
-        int startY;
-        char direction = 'U'; // U D L R
-        int velocityX = 0;
-        int velocityY = 0;
-        boolean isPowerful = false;
-        int fruitType = 0; // 0=none, 1=cherry, 2=strawberry, 3=orange
-
-        Block(Image image, int x, int y, int width, int height) {
-            this.image = image;
-            this.x = x;
-            this.y = y;
-            this.width = width;
-            this.height = height;
-            this.startX = x;
-            this.startY = y;
-        }
-
-        void updateDirection(char direction) {
-            char prevDirection = this.direction;
-            this.direction = direction;
-            updateVelocity();
-            this.x += this.velocityX;
-            this.y += this.velocityY;
-            for (Block wall : walls) {
-                if (collision(this, wall)) {
-                    this.x -= this.velocityX;
-                    this.y -= this.velocityY;
-                    this.direction = prevDirection;
-                    updateVelocity();
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+//The game window. A thread of its own runs the simulation at a fixed
+//TICK_NANOS and draws as many frames as the display shows in between, with
+//the sprites slid between where they were on the last two ticks, so motion
+//is smooth whatever the tick rate. Frames are page flipped through a
+//BufferStrategy rather than painted by Swing.
+//
+//A frame is put together in the pixels of an image of our own (the maze,
+//then the sprites, copied in by hand) with just the text drawn by Java2D, and
+//goes to the screen as one drawImage. Java2D's drawImage leaves a few
+//Rectangles of garbage per call when the JIT doesn't optimize them away, so
+//it's used once a frame instead of once a sprite.
+public class PacMan extends Canvas implements Runnable, KeyListener {
+    static final long TICK_NANOS = 50_000_000L; // 20 ticks a second, what the game rules are tuned for
+    static final int MAX_CATCH_UP_TICKS = 5;
+    static final int DEFAULT_REFRESH_RATE = 120; // when the display doesn't say
+    static final Font HUD_FONT = new Font("Arial", Font.PLAIN, 18);
+    static final Font PAUSE_FONT = new Font("Arial", Font.BOLD, 32);
+    static final Font RESUME_FONT = new Font("Arial", Font.PLAIN, 16);
+    static final Color PAUSE_OVERLAY_COLOR = new Color(255, 255, 255, 150); // Semi-transparent white
+    static final Font METRICS_FONT = new Font("Monospaced", Font.PLAIN, 12);
+    static final Color METRICS_BACKGROUND = new Color(0, 0, 0, 180);
+    static final long METRICS_REFRESH_NANOS = 500_000_000L;
+
+    //the window never gets bigger than this, bigger mazes scroll
+    static final int VIEW_MAX_COLUMNS = 40;
+    static final int VIEW_MAX_ROWS = 24;
+    static final int CHUNK_TILES = 16;
+    static final int FOOD_RGB = 0xFFFFFF;
+
+    Game game;
+    int tileSize;
+    int boardWidth;
+    int boardHeight;
+    Sprites sprites;
+    int pacmanSprite = Sprites.PACMAN_RIGHT;
+
+    Thread gameLoop;
+    volatile boolean running;
+    //keys from the EDT, handled by the game loop at the start of the next
+    //tick. Only the game loop thread touches the game
+    InputQueue inputs = new InputQueue();
+
+    //actor positions as of the tick before the last one. Frames are drawn
+    //alpha of the way from there to the current positions
+    int[] previousX = new int[0];
+    int[] previousY = new int[0];
+    int[] drawX = new int[0];
+    int[] drawY = new int[0];
+    double alpha = 1;
+
+    //every game is recorded, and saved on game over when -Dpacman.replayDir is set
+    Recording recording;
+
+    //finished games go here, when App opened one
+    ScoreStore scores;
+
+    //the part of the board on screen, in board pixels. The camera follows
+    //pacman and stops at the edges of the board
+    int viewWidth;
+    int viewHeight;
+    int cameraX;
+    int cameraY;
+
+    //the frame being put together, and a Graphics2D for the text on it
+    BufferedImage frame;
+    int[] framePixels;
+    Graphics2D frameGraphics;
+
+    //walls and food are pre-rendered in CHUNK_TILES x CHUNK_TILES chunks of
+    //RGB pixels, each the first time it comes into view; eaten food is blacked
+    //out in place so a frame is a few chunk copies plus the sprites. Chunks that
+    //scroll well out of view go back to chunkPool, so only the chunks around
+    //the camera are held however big the maze is
+    int chunkSize; // in pixels
+    int chunkColumns;
+    int chunkRows;
+    int[][] chunkPixels; // by chunk, null when not rendered
+    int[] cachedChunks; // the chunks with pixels
+    int cachedChunkCount;
+    int[][] chunkPool;
+    int chunkPoolCount;
+    int mazeMapVersion = -1;
+    int mazeFoodSeen = 0;
+
+    //reused every frame so painting doesn't allocate
+    char[] hudText = new char[64];
+
+    //the metrics overlay (M key), its numbers are refreshed twice a second
+    //so they can be read
+    boolean showMetrics;
+    long metricsRefreshedAt;
+    long[] metricsP50 = new long[Metrics.ALL.length];
+    long[] metricsP99 = new long[Metrics.ALL.length];
+    long metricsGcMillis;
+
+    //plays for you while it's on (A key), made the first time it's turned on
+    MonteCarloAgent autopilot;
+    boolean autopilotOn;
+
+    PacMan() {
+        this(new Game());
+    }
+
+    PacMan(Game game) {
+        this.game = game;
+        tileSize = game.tileSize;
+        boardWidth = game.boardWidth;
+        boardHeight = game.boardHeight;
+
+        viewWidth = Math.min(boardWidth, VIEW_MAX_COLUMNS * tileSize);
+        viewHeight = Math.min(boardHeight, VIEW_MAX_ROWS * tileSize);
+        chunkSize = CHUNK_TILES * tileSize;
+        //at most the chunks in view plus one all round are kept (see releaseChunks)
+        int maxCached = (viewWidth / chunkSize + 4) * (viewHeight / chunkSize + 4);
+        cachedChunks = new int[maxCached];
+        chunkPool = new int[maxCached][];
+        frame = new BufferedImage(viewWidth, viewHeight, BufferedImage.TYPE_INT_RGB);
+        framePixels = ((DataBufferInt) frame.getRaster().getDataBuffer()).getData();
+        frameGraphics = frame.createGraphics();
+        savePositions();
+
+        setPreferredSize(new Dimension(viewWidth, viewHeight));
+        setBackground(Color.BLACK);
+        setIgnoreRepaint(true); // every frame is drawn by the game loop
+        addKeyListener(this);
+        setFocusable(true);
+        sprites = Sprites.forTileSize(tileSize);
+
+        recording = Recording.start(game);
+    }
+
+    //start the game loop. Needs the panel to be on screen, since that's when
+    //it can get a BufferStrategy
+    void start() {
+        createBufferStrategy(2);
+        running = true;
+        gameLoop = new Thread(this, "game loop");
+        gameLoop.start();
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        BufferStrategy strategy = getBufferStrategy();
+        long frameNanos = 1_000_000_000L / refreshRate();
+        long nextTick = System.nanoTime();
+        long lastFrame = 0;
+        while (running) {
+            long now = System.nanoTime();
+            int ticks = 0;
+            while (now - nextTick >= 0) {
+                long start = Metrics.start();
+                tick();
+                Metrics.stop(Metrics.TICK, start);
+                nextTick += TICK_NANOS;
+                if (++ticks == MAX_CATCH_UP_TICKS) {
+                    //we've fallen well behind (a GC pause, a suspended laptop),
+                    //drop the missed ticks instead of fast forwarding through them
+                    nextTick = now + TICK_NANOS;
+                    break;
                 }
             }
-        }
 
-        void updateVelocity() {
-            int baseSpeed = tileSize/4;
-            int actualSpeed = baseSpeed + (speed * baseSpeed / 5);
-            
-            if (this.direction == 'U') {
-                this.velocityX = 0;
-                this.velocityY = -actualSpeed;
+            alpha = 1 - (double) (nextTick - now) / TICK_NANOS;
+            render(strategy);
+            if (lastFrame != 0) {
+                Metrics.record(Metrics.FRAME, now - lastFrame);
             }
-            else if (this.direction == 'D') {
-                this.velocityX = 0;
-                this.velocityY = actualSpeed;
-            }
-            else if (this.direction == 'L') {
-                this.velocityX = -actualSpeed;
-                this.velocityY = 0;
-            }
-            else if (this.direction == 'R') {
-                this.velocityX = actualSpeed;
-                this.velocityY = 0;
-            }
-        }
+            lastFrame = now;
 
-        void reset() {
-            this.x = this.startX;
-            this.y = this.startY;
+            //sleep until the next frame is due, or the next tick if that's sooner
+            long wakeUp = Math.min(now + frameNanos, nextTick);
+            LockSupport.parkNanos(wakeUp - System.nanoTime());
         }
     }
 
-    private int rowCount = 21;
-    private int columnCount = 19;
-    private int tileSize = 32;
-    private int boardWidth = columnCount * tileSize;
-    private int boardHeight = rowCount * tileSize;
-
-    private Image wallImage;
-    private Image blueGhostImage;
-    private Image orangeGhostImage;
-    private Image pinkGhostImage;
-    private Image redGhostImage;
-
-    private Image pacmanUpImage;
-    private Image pacmanDownImage;
-    private Image pacmanLeftImage;
-    private Image pacmanRightImage;
-
-    //X = wall, O = skip, P = pac man, ' ' = food
-    //Ghosts: b = blue, o = orange, p = pink, r = red, g = powerful ghost
-    private String[] tileMap = {
-        "XXXXXXXXXXXXXXXXXXX",
-        "X        X        X",
-        "X XX XXX X XXX XX X",
-        "X                 X",
-        "X XX X XXXXX X XX X",
-        "X    X       X    X",
-        "XXXX XXXX XXXX XXXX",
-        "OOOX X       X XOOO",
-        "XXXX X XXrXX X XXXX",
-        "O       bpo  g    O",
-        "XXXX X XXXXX X XXXX",
-        "OOOX X       X XOOO",
-        "XXXX X XXXXX X XXXX",
-        "X        X        X",
-        "X XX XXX X XXX XX X",
-        "X  X     P     X  X",
-        "XX X X XXXXX X X XX",
-        "X    X   X   X    X",
-        "X XXXXXX X XXXXXX X",
-        "X                 X",
-        "XXXXXXXXXXXXXXXXXXX" 
-    };
-
-    HashSet<Block> walls;
-    HashSet<Block> foods;
-    HashSet<Block> ghosts;
-    HashSet<Block> fruits;
-    Block pacman;
-    Block powerfulGhost;
-
-    Timer gameLoop;
-    Timer fruitTimer;
-    char[] directions = {'U', 'D', 'L', 'R'}; //up down left right
-    Random random = new Random();
-    int score = 0;
-    int lives = 3;
-    boolean gameOver = false;
-    boolean paused = false;
-    int speed = 0; // Speed level
-    int lastSpeedIncreaseScore = 0;
+    int refreshRate() {
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        int rate = gc != null ? gc.getDevice().getDisplayMode().getRefreshRate() : DisplayMode.REFRESH_RATE_UNKNOWN;
+        return rate > 0 ? rate : DEFAULT_REFRESH_RATE;
+    }
 
-    PacMan() {
-        setPreferredSize(new Dimension(boardWidth, boardHeight));
-        setBackground(Color.BLACK);
-        addKeyListener(this);
-        setFocusable(true);
+    void render(BufferStrategy strategy) {
+        //the loops are the BufferStrategy recipe for surviving lost video memory
+        do {
+            do {
+                Graphics g = strategy.getDrawGraphics();
+                draw(g);
+                g.dispose();
+            } while (strategy.contentsRestored());
+            strategy.show();
+        } while (strategy.contentsLost());
+        Toolkit.getDefaultToolkit().sync();
+    }
 
-        //load images
-        wallImage = new ImageIcon(getClass().getResource("./wall.png")).getImage();
-        blueGhostImage = new ImageIcon(getClass().getResource("./blueGhost.png")).getImage();
-        orangeGhostImage = new ImageIcon(getClass().getResource("./orangeGhost.png")).getImage();
-        pinkGhostImage = new ImageIcon(getClass().getResource("./pinkGhost.png")).getImage();
-        redGhostImage = new ImageIcon(getClass().getResource("./redGhost.png")).getImage();
+    static int ghostSprite(char kind) {
+        if (kind == 'b') return Sprites.BLUE_GHOST;
+        if (kind == 'o') return Sprites.ORANGE_GHOST;
+        if (kind == 'p') return Sprites.PINK_GHOST;
+        return Sprites.RED_GHOST; // 'r' and the powerful ghost
+    }
 
-        pacmanUpImage = new ImageIcon(getClass().getResource("./pacmanUp.png")).getImage();
-        pacmanDownImage = new ImageIcon(getClass().getResource("./pacmanDown.png")).getImage();
-        pacmanLeftImage = new ImageIcon(getClass().getResource("./pacmanLeft.png")).getImage();
-        pacmanRightImage = new ImageIcon(getClass().getResource("./pacmanRight.png")).getImage();
+    void savePositions() {
+        int actorCount = game.actorCount;
+        if (previousX.length != actorCount) {
+            previousX = new int[actorCount];
+            previousY = new int[actorCount];
+            drawX = new int[actorCount];
+            drawY = new int[actorCount];
+        }
+        System.arraycopy(game.actorX, 0, previousX, 0, actorCount);
+        System.arraycopy(game.actorY, 0, previousY, 0, actorCount);
+    }
 
-        loadMap();
-        for (Block ghost : ghosts) {
-            char newDirection = directions[random.nextInt(4)];
-            ghost.updateDirection(newDirection);
+    //where to draw each actor this frame
+    void interpolate() {
+        if (previousX.length != game.actorCount) {
+            savePositions();
         }
-        
-        // Powerful ghost with red ghost image but different behavior
-        if (powerfulGhost != null) {
-            powerfulGhost.isPowerful = true;
-            powerfulGhost.image = redGhostImage;
-            char newDirection = directions[random.nextInt(4)];
-            powerfulGhost.updateDirection(newDirection);
+        for (int actor = 0; actor < game.actorCount; actor++) {
+            drawX[actor] = between(previousX[actor], game.actorX[actor]);
+            drawY[actor] = between(previousY[actor], game.actorY[actor]);
         }
-        
-        //how long it takes to start timer, milliseconds gone between frames
-        gameLoop = new Timer(50, this); //20fps (1000/50)
-        gameLoop.start();
-        
-        // Timer for randomly spawning fruits
-        fruitTimer = new Timer(10000, new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                if (!paused && !gameOver && fruits.isEmpty()) {
-                    spawnRandomFruit();
-                }
-            }
-        });
-        fruitTimer.start();
     }
 
-    public void loadMap() {
-        walls = new HashSet<Block>();
-        foods = new HashSet<Block>();
-        ghosts = new HashSet<Block>();
-        fruits = new HashSet<Block>();
-        powerfulGhost = null;
+    int between(int previous, int current) {
+        if (Math.abs(current - previous) > tileSize) {
+            return current; // sent back to the start, don't slide across the maze
+        }
+        return previous + (int) Math.round((current - previous) * alpha);
+    }
 
-        for (int r = 0; r < rowCount; r++) {
-            for (int c = 0; c < columnCount; c++) {
-                String row = tileMap[r];
-                char tileMapChar = row.charAt(c);
+    //center the view on pacman
+    void updateCamera() {
+        int x = drawX[Game.PACMAN] + tileSize/2 - viewWidth/2;
+        int y = drawY[Game.PACMAN] + tileSize/2 - viewHeight/2;
+        cameraX = Math.max(0, Math.min(x, boardWidth - viewWidth));
+        cameraY = Math.max(0, Math.min(y, boardHeight - viewHeight));
+    }
 
-                int x = c*tileSize;
-                int y = r*tileSize;
+    void updateMaze() {
+        if (chunkPixels == null || mazeMapVersion != game.mapVersion) {
+            releaseChunks(0, 0, -1, -1); // throw away every chunk
+            chunkColumns = (game.columnCount + CHUNK_TILES - 1) / CHUNK_TILES;
+            chunkRows = (game.rowCount + CHUNK_TILES - 1) / CHUNK_TILES;
+            if (chunkPixels == null || chunkPixels.length != chunkColumns * chunkRows) {
+                chunkPixels = new int[chunkColumns * chunkRows][];
+            }
+            mazeMapVersion = game.mapVersion;
+            mazeFoodSeen = game.eatenFoodCount;
+            return;
+        }
 
-                if (tileMapChar == 'X') { //block wall
-                    Block wall = new Block(wallImage, x, y, tileSize, tileSize);
-                    walls.add(wall);
-                }
-                else if (tileMapChar == 'b') { //blue ghost
-                    Block ghost = new Block(blueGhostImage, x, y, tileSize, tileSize);
-                    ghosts.add(ghost);
-                }
-                else if (tileMapChar == 'o') { //orange ghost
-                    Block ghost = new Block(orangeGhostImage, x, y, tileSize, tileSize);
-                    ghosts.add(ghost);
-                }
-                else if (tileMapChar == 'p') { //pink ghost
-                    Block ghost = new Block(pinkGhostImage, x, y, tileSize, tileSize);
-                    ghosts.add(ghost);
-                }
-                else if (tileMapChar == 'r') { //red ghost
-                    Block ghost = new Block(redGhostImage, x, y, tileSize, tileSize);
-                    ghosts.add(ghost);
-                }
-                else if (tileMapChar == 'g') { //powerful ghost
-                    powerfulGhost = new Block(redGhostImage, x, y, tileSize, tileSize);
-                    powerfulGhost.isPowerful = true;
-                }
-                else if (tileMapChar == 'P') { //pacman
-                    pacman = new Block(pacmanRightImage, x, y, tileSize, tileSize);
-                }
-                else if (tileMapChar == ' ') { //food
-                    Block food = new Block(null, x + 14, y + 14, 4, 4);
-                    foods.add(food);
-                }
+        //chunks that aren't rendered yet will pick up the eaten food from the game
+        while (mazeFoodSeen < game.eatenFoodCount) {
+            int tile = game.eatenFoodTiles[mazeFoodSeen++];
+            int r = tile / game.columnCount;
+            int c = tile % game.columnCount;
+            int[] pixels = chunkPixels[(r / CHUNK_TILES) * chunkColumns + c / CHUNK_TILES];
+            if (pixels != null) {
+                fill(pixels, chunkSize, (c % CHUNK_TILES) * tileSize, (r % CHUNK_TILES) * tileSize, tileSize, tileSize, 0); // black
             }
         }
     }
 
-    public void spawnRandomFruit() {
-        // Find a random empty position (not on wall, ghost, food)
-        boolean validPosition = false;
-        int x = 0, y = 0;
-        
-        while (!validPosition) {
-            int randomRow = random.nextInt(rowCount - 2) + 1; // Avoid borders
-            int randomCol = random.nextInt(columnCount - 2) + 1;
-            
-            x = randomCol * tileSize;
-            y = randomRow * tileSize;
-            
-            // Check if position is valid (not on wall, ghost, etc.)
-            validPosition = true;
-            Block tempBlock = new Block(null, x, y, tileSize, tileSize);
-            
-            for (Block wall : walls) {
-                if (collision(tempBlock, wall)) {
-                    validPosition = false;
-                    break;
+    void renderChunk(int chunk) {
+        int[] pixels = chunkPoolCount > 0 ? chunkPool[--chunkPoolCount] : new int[chunkSize * chunkSize];
+        Arrays.fill(pixels, 0); // black
+        int firstRow = (chunk / chunkColumns) * CHUNK_TILES;
+        int firstColumn = (chunk % chunkColumns) * CHUNK_TILES;
+        int lastRow = Math.min(firstRow + CHUNK_TILES, game.rowCount);
+        int lastColumn = Math.min(firstColumn + CHUNK_TILES, game.columnCount);
+        for (int r = firstRow; r < lastRow; r++) {
+            for (int c = firstColumn; c < lastColumn; c++) {
+                int tile = r * game.columnCount + c;
+                int x = (c - firstColumn) * tileSize;
+                int y = (r - firstRow) * tileSize;
+                if (game.wallGrid[tile]) {
+                    sprites.draw(pixels, chunkSize, chunkSize, Sprites.WALL, x, y);
                 }
-            }
-            
-            if (validPosition) {
-                for (Block ghost : ghosts) {
-                    if (collision(tempBlock, ghost)) {
-                        validPosition = false;
-                        break;
-                    }
+                else if (game.hasFood(tile) && game.powerFoodGrid[tile]) {
+                    sprites.draw(pixels, chunkSize, chunkSize, Sprites.POWER_FOOD, x, y);
                 }
-            }
-            
-            if (validPosition && powerfulGhost != null) {
-                if (collision(tempBlock, powerfulGhost)) {
-                    validPosition = false;
+                else if (game.hasFood(tile)) {
+                    fill(pixels, chunkSize, x + Game.FOOD_OFFSET, y + Game.FOOD_OFFSET, Game.FOOD_SIZE, Game.FOOD_SIZE, FOOD_RGB);
                 }
             }
-            
-            if (validPosition && collision(tempBlock, pacman)) {
-                validPosition = false;
+        }
+
+        chunkPixels[chunk] = pixels;
+        cachedChunks[cachedChunkCount++] = chunk;
+    }
+
+    //fill a rectangle of an RGB image's pixels, width to a row
+    static void fill(int[] pixels, int width, int x, int y, int w, int h, int rgb) {
+        for (int row = y; row < y + h; row++) {
+            Arrays.fill(pixels, row * width + x, row * width + x + w, rgb);
+        }
+    }
+
+    //copy a chunk's pixels into the frame with its corner at x, y, clipped to the frame
+    void copyChunk(int[] pixels, int x, int y) {
+        int firstRow = Math.max(0, -y);
+        int lastRow = Math.min(chunkSize, viewHeight - y);
+        int firstColumn = Math.max(0, -x);
+        int lastColumn = Math.min(chunkSize, viewWidth - x);
+        for (int row = firstRow; row < lastRow; row++) {
+            System.arraycopy(pixels, row * chunkSize + firstColumn, framePixels, (y + row) * viewWidth + x + firstColumn, lastColumn - firstColumn);
+        }
+    }
+
+    //give back the pixels of chunks outside the given range of chunk columns and rows
+    void releaseChunks(int left, int top, int right, int bottom) {
+        for (int i = cachedChunkCount - 1; i >= 0; i--) {
+            int chunk = cachedChunks[i];
+            int chunkRow = chunk / chunkColumns;
+            int chunkColumn = chunk % chunkColumns;
+            if (chunkColumn < left || chunkColumn > right || chunkRow < top || chunkRow > bottom) {
+                chunkPool[chunkPoolCount++] = chunkPixels[chunk];
+                chunkPixels[chunk] = null;
+                cachedChunks[i] = cachedChunks[--cachedChunkCount];
             }
         }
-        
-        // Create fruit
-        int fruitType = random.nextInt(3) + 1; // 1=cherry, 2=strawberry, 3=orange
-        Block fruit = new Block(null, x, y, tileSize, tileSize);
-        fruit.fruitType = fruitType;
-        fruits.add(fruit);
     }
-    
-    public void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        draw(g);
+
+    boolean inView(int x, int y, int margin) {
+        return x + tileSize + margin > cameraX && x - margin < cameraX + viewWidth
+            && y + tileSize + margin > cameraY && y - margin < cameraY + viewHeight;
     }
 
     public void draw(Graphics g) {
-        g.drawImage(pacman.image, pacman.x, pacman.y, pacman.width, pacman.height, null);
+        drawFrame();
+        g.drawImage(frame, 0, 0, null);
+    }
 
-        for (Block ghost : ghosts) {
-            g.drawImage(ghost.image, ghost.x, ghost.y, ghost.width, ghost.height, null);
+    //put the next frame together in frame
+    void drawFrame() {
+        long start = Metrics.start();
+        interpolate();
+        updateCamera();
+        updateMaze();
+        int left = cameraX / chunkSize;
+        int top = cameraY / chunkSize;
+        int right = (cameraX + viewWidth - 1) / chunkSize;
+        int bottom = (cameraY + viewHeight - 1) / chunkSize;
+        releaseChunks(left - 1, top - 1, right + 1, bottom + 1);
+        for (int chunkRow = top; chunkRow <= bottom; chunkRow++) {
+            for (int chunkColumn = left; chunkColumn <= right; chunkColumn++) {
+                int chunk = chunkRow * chunkColumns + chunkColumn;
+                if (chunkPixels[chunk] == null) {
+                    renderChunk(chunk);
+                }
+                copyChunk(chunkPixels[chunk], chunkColumn * chunkSize - cameraX, chunkRow * chunkSize - cameraY);
+            }
+        }
+
+        int[] actorX = drawX;
+        int[] actorY = drawY;
+        int score = game.score;
+        int lives = game.lives;
+        int speed = game.speed;
+        boolean gameOver = game.gameOver;
+        boolean paused = game.paused;
+
+        //sprites are drawn in board coordinates, shifted by the camera
+        Graphics g = frameGraphics;
+        g.translate(-cameraX, -cameraY);
+        drawSprite(pacmanSprite, actorX[Game.PACMAN], actorY[Game.PACMAN]);
+
+        for (int ghost = 1; ghost <= game.ghostCount; ghost++) {
+            if (inView(actorX[ghost], actorY[ghost], 0)) {
+                int sprite = game.frightened[ghost] ? Sprites.SCARED_GHOST : ghostSprite(game.kind[ghost]);
+                drawSprite(sprite, actorX[ghost], actorY[ghost]);
+            }
         }
         
-        if (powerfulGhost != null) {
+        if (game.powerfulGhost >= 0 && inView(actorX[game.powerfulGhost], actorY[game.powerfulGhost], 3)) {
+            int ghost = game.powerfulGhost;
             // Draw powerful ghost slightly larger and with a red glow
-            g.drawImage(powerfulGhost.image, powerfulGhost.x - 2, powerfulGhost.y - 2, 
-                        powerfulGhost.width + 4, powerfulGhost.height + 4, null);
+            drawSprite(Sprites.POWERFUL_GHOST, actorX[ghost] - 2, actorY[ghost] - 2);
             
             // Add red glow outline
             g.setColor(Color.RED);
-            g.drawRect(powerfulGhost.x - 3, powerfulGhost.y - 3, 
-                       powerfulGhost.width + 6, powerfulGhost.height + 6);
-        }
-
-        for (Block wall : walls) {
-            g.drawImage(wall.image, wall.x, wall.y, wall.width, wall.height, null);
+            g.drawRect(actorX[ghost] - 3, actorY[ghost] - 3, 
+                       tileSize + 6, tileSize + 6);
         }
 
-        g.setColor(Color.WHITE);
-        for (Block food : foods) {
-            g.fillRect(food.x, food.y, food.width, food.height);
-        }
-        
         // Draw fruits
-        for (Block fruit : fruits) {
-            if (fruit.fruitType == 1) {
-                // Cherry (red circle)
-                g.setColor(Color.RED);
-                g.fillOval(fruit.x + 8, fruit.y + 8, 16, 16);
-                g.setColor(new Color(139, 69, 19)); // Brown for stem
-                g.fillRect(fruit.x + 16, fruit.y + 4, 2, 8);
-            } else if (fruit.fruitType == 2) {
-                // Strawberry (red triangle with green top)
-                g.setColor(Color.RED);
-                int[] xPoints = {fruit.x + 16, fruit.x + 8, fruit.x + 24};
-                int[] yPoints = {fruit.y + 24, fruit.y + 8, fruit.y + 8};
-                g.fillPolygon(xPoints, yPoints, 3);
-                g.setColor(Color.GREEN);
-                g.fillRect(fruit.x + 14, fruit.y + 4, 4, 4);
-            } else if (fruit.fruitType == 3) {
-                // Orange (orange circle)
-                g.setColor(Color.ORANGE);
-                g.fillOval(fruit.x + 8, fruit.y + 8, 16, 16);
-                g.setColor(new Color(0, 100, 0)); // Dark green for leaf
-                g.fillOval(fruit.x + 16, fruit.y + 4, 4, 4);
+        for (int i = 0; i < game.fruitCount; i++) {
+            int tile = game.fruitTiles[i];
+            int fruitType = game.fruitGrid[tile];
+            int fruitX = (tile % game.columnCount) * tileSize;
+            int fruitY = (tile / game.columnCount) * tileSize;
+            if (inView(fruitX, fruitY, 0)) {
+                drawSprite(Sprites.FRUIT + fruitType - 1, fruitX, fruitY);
             }
         }
+        g.translate(cameraX, cameraY);
         
         //score
-        g.setFont(new Font("Arial", Font.PLAIN, 18));
+        g.setFont(HUD_FONT);
         if (gameOver) {
             g.setColor(Color.RED);
-            g.drawString("Game Over: " + String.valueOf(score), tileSize/2, tileSize/2);
+            int length = appendText(hudText, 0, "Game Over: ");
+            length = appendInt(hudText, length, score);
+            if (scores != null) {
+                //the store may not have this game in it yet
+                length = appendText(hudText, length, " Best: ");
+                length = appendInt(hudText, length, Math.max(scores.best(), score));
+            }
+            g.drawChars(hudText, 0, length, tileSize/2, tileSize/2);
         }
         else {
             g.setColor(Color.WHITE);
-            g.drawString("x" + String.valueOf(lives) + " Score: " + String.valueOf(score) + " Speed: " + String.valueOf(speed), tileSize/2, tileSize/2);
+            int length = appendText(hudText, 0, "x");
+            length = appendInt(hudText, length, lives);
+            length = appendText(hudText, length, " Score: ");
+            length = appendInt(hudText, length, score);
+            length = appendText(hudText, length, " Speed: ");
+            length = appendInt(hudText, length, speed);
+            g.drawChars(hudText, 0, length, tileSize/2, tileSize/2);
             
             if (paused) {
-                g.setColor(new Color(255, 255, 255, 150)); // Semi-transparent white
-                g.fillRect(0, 0, boardWidth, boardHeight);
+                g.setColor(PAUSE_OVERLAY_COLOR);
+                g.fillRect(0, 0, viewWidth, viewHeight);
                 g.setColor(Color.RED);
-                g.setFont(new Font("Arial", Font.BOLD, 32));
+                g.setFont(PAUSE_FONT);
                 String pauseMsg = "PAUSED";
                 FontMetrics fm = g.getFontMetrics();
                 int textWidth = fm.stringWidth(pauseMsg);
-                g.drawString(pauseMsg, (boardWidth - textWidth) / 2, boardHeight / 2);
-                g.setFont(new Font("Arial", Font.PLAIN, 16));
+                g.drawString(pauseMsg, (viewWidth - textWidth) / 2, viewHeight / 2);
+                g.setFont(RESUME_FONT);
                 String resumeMsg = "Press 'R' to resume";
                 textWidth = fm.stringWidth(resumeMsg);
-                g.drawString(resumeMsg, (boardWidth - textWidth) / 2, boardHeight / 2 + 40);
+                g.drawString(resumeMsg, (viewWidth - textWidth) / 2, viewHeight / 2 + 40);
             }
         }
+
+        if (showMetrics) {
+            drawMetrics(g);
+        }
+        Metrics.stop(Metrics.DRAW, start);
     }
 
-    public void move() {
-        if (paused) return;
-        
-        pacman.x += pacman.velocityX;
-        pacman.y += pacman.velocityY;
-
-        //check wall collisions
-        for (Block wall : walls) {
-            if (collision(pacman, wall)) {
-                pacman.x -= pacman.velocityX;
-                pacman.y -= pacman.velocityY;
-                break;
+    //a sprite at board coordinates x, y
+    void drawSprite(int sprite, int x, int y) {
+        sprites.draw(framePixels, viewWidth, viewHeight, sprite, x - cameraX, y - cameraY);
+    }
+
+    void drawMetrics(Graphics g) {
+        long now = System.nanoTime();
+        if (now - metricsRefreshedAt > METRICS_REFRESH_NANOS) {
+            for (int i = 0; i < Metrics.ALL.length; i++) {
+                metricsP50[i] = Metrics.ALL[i].percentile(0.5);
+                metricsP99[i] = Metrics.ALL[i].percentile(0.99);
             }
+            metricsGcMillis = Metrics.gcMillis();
+            metricsRefreshedAt = now;
+        }
+
+        int lineHeight = 14;
+        int width = 200;
+        int x = viewWidth - width - tileSize/2;
+        int y = tileSize;
+        g.setColor(METRICS_BACKGROUND);
+        g.fillRect(x, y, width, (Metrics.ALL.length + 2) * lineHeight + 8);
+        g.setColor(Color.GREEN);
+        g.setFont(METRICS_FONT);
+        x += 6;
+        y += lineHeight;
+        if (!Metrics.ENABLED) {
+            g.drawString("off, run with", x, y);
+            g.drawString("-Dpacman.metrics=true", x, y + lineHeight);
+            return;
         }
+        g.drawString("p50/p99 us", x, y);
+        for (int i = 0; i < Metrics.ALL.length; i++) {
+            y += lineHeight;
+            int length = appendText(hudText, 0, Metrics.ALL[i].name);
+            length = appendText(hudText, length, " ");
+            length = appendInt(hudText, length, (int) (metricsP50[i] / 1000));
+            length = appendText(hudText, length, "/");
+            length = appendInt(hudText, length, (int) (metricsP99[i] / 1000));
+            g.drawChars(hudText, 0, length, x, y);
+        }
+        y += lineHeight;
+        int length = appendText(hudText, 0, "gc ");
+        length = appendInt(hudText, length, (int) metricsGcMillis);
+        length = appendText(hudText, length, "ms total");
+        g.drawChars(hudText, 0, length, x, y);
+    }
 
-        //check ghost collisions
-        for (Block ghost : ghosts) {
-            if (collision(ghost, pacman)) {
-                lives -= 1;
-                if (lives == 0) {
-                    gameOver = true;
-                    return;
-                }
-                resetPositions();
-            }
+    //copy text into buf at pos and return the new length, like StringBuilder
+    //without the garbage
+    static int appendText(char[] buf, int pos, String text) {
+        text.getChars(0, text.length(), buf, pos);
+        return pos + text.length();
+    }
 
-            if (ghost.y == tileSize*9 && ghost.direction != 'U' && ghost.direction != 'D') {
-                ghost.updateDirection('U');
-            }
-            ghost.x += ghost.velocityX;
-            ghost.y += ghost.velocityY;
-            for (Block wall : walls) {
-                if (collision(ghost, wall) || ghost.x <= 0 || ghost.x + ghost.width >= boardWidth) {
-                    ghost.x -= ghost.velocityX;
-                    ghost.y -= ghost.velocityY;
-                    char newDirection = directions[random.nextInt(4)];
-                    ghost.updateDirection(newDirection);
-                }
-            }
+    static int appendInt(char[] buf, int pos, int value) {
+        if (value < 0) {
+            buf[pos++] = '-';
+            value = -value;
         }
-        
-        // Powerful ghost movement
-        if (powerfulGhost != null) {
-            // Move towards pacman (simple AI)
-            if (random.nextInt(4) == 0) { // 25% chance to change direction based on pacman's position
-                if (powerfulGhost.x < pacman.x) {
-                    powerfulGhost.updateDirection('R');
-                } else if (powerfulGhost.x > pacman.x) {
-                    powerfulGhost.updateDirection('L');
-                } else if (powerfulGhost.y < pacman.y) {
-                    powerfulGhost.updateDirection('D');
-                } else {
-                    powerfulGhost.updateDirection('U');
-                }
-            }
-            
-            powerfulGhost.x += powerfulGhost.velocityX;
-            powerfulGhost.y += powerfulGhost.velocityY;
-            
-            // Check wall collision for powerful ghost
-            boolean collided = false;
-            for (Block wall : walls) {
-                if (collision(powerfulGhost, wall) || powerfulGhost.x <= 0 || powerfulGhost.x + powerfulGhost.width >= boardWidth) {
-                    powerfulGhost.x -= powerfulGhost.velocityX;
-                    powerfulGhost.y -= powerfulGhost.velocityY;
-                    char newDirection = directions[random.nextInt(4)];
-                    powerfulGhost.updateDirection(newDirection);
-                    collided = true;
-                    break;
-                }
-            }
-            
-            // Check collision with pacman - instant game over for powerful ghost
-            if (collision(powerfulGhost, pacman)) {
-                lives = 0;
-                gameOver = true;
-                return;
-            }
+        int digits = 1;
+        for (int v = value; v >= 10; v /= 10) {
+            digits++;
         }
-        
-        // Check fruit collision
-        Block fruitEaten = null;
-        for (Block fruit : fruits) {
-            if (collision(pacman, fruit)) {
-                fruitEaten = fruit;
-                int points = fruit.fruitType * 10; // 10, 20, or 30 points
-                score += points;
-                
-                // Update speed if score threshold reached
-                checkSpeedIncrease();
-                
-                break;
-            }
-        }
-        if (fruitEaten != null) {
-            fruits.remove(fruitEaten);
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            buf[i] = (char) ('0' + value % 10);
+            value /= 10;
         }
+        return pos + digits;
+    }
 
-        //check food collision
-        Block foodEaten = null;
-        for (Block food : foods) {
-            if (collision(pacman, food)) {
-                foodEaten = food;
-                score += 10;
-                
-                // Update speed if score threshold reached
-                checkSpeedIncrease();
+    //one step of the simulation, on the game loop thread
+    void tick() {
+        //every queued key is handled, the last arrow wins
+        char input = 0;
+        for (int keyCode = inputs.poll(); keyCode != 0; keyCode = inputs.poll()) {
+            char direction = handleKey(keyCode);
+            if (direction != 0) {
+                input = direction;
             }
         }
-        foods.remove(foodEaten);
-
-        if (foods.isEmpty()) {
-            loadMap();
-            resetPositions();
+        if (autopilotOn && input == 0) {
+            input = autopilot.nextInput(game);
         }
-    }
-    
-    private void checkSpeedIncrease() {
-        // Increase speed every 100 points
-        if (score >= lastSpeedIncreaseScore + 100) {
-            speed++;
-            lastSpeedIncreaseScore = score;
-            
-            // Update velocities for all moving objects
-            pacman.updateVelocity();
-            for (Block ghost : ghosts) {
-                ghost.updateVelocity();
-            }
-            if (powerfulGhost != null) {
-                powerfulGhost.updateVelocity();
+        savePositions();
+        boolean wasOver = game.gameOver;
+        game.step(input);
+        updatePacmanSprite(); // a buffered turn can happen on any tick
+        if (game.gameOver && !wasOver) {
+            if (scores != null) {
+                scores.submit(game);
             }
+            saveRecording();
         }
     }
 
-    public boolean collision(Block a, Block b) {
-        return  a.x < b.x + b.width &&
-                a.x + a.width > b.x &&
-                a.y < b.y + b.height &&
-                a.y + a.height > b.y;
+    void saveRecording() {
+        String replayDir = System.getProperty("pacman.replayDir");
+        if (replayDir == null) return;
+        File file = new File(replayDir, "pacman-" + recording.seed + ".rec");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            recording.write(out);
+        } catch (IOException ex) {
+            System.err.println("Couldn't save replay " + file + ": " + ex);
+        }
     }
 
-    public void resetPositions() {
-        pacman.reset();
-        pacman.velocityX = 0;
-        pacman.velocityY = 0;
-        
-        for (Block ghost : ghosts) {
-            ghost.reset();
-            char newDirection = directions[random.nextInt(4)];
-            ghost.updateDirection(newDirection);
+    void updatePacmanSprite() {
+        char direction = game.direction[Game.PACMAN];
+        if (direction == 'U') {
+            pacmanSprite = Sprites.PACMAN_UP;
         }
-        
-        if (powerfulGhost != null) {
-            powerfulGhost.reset();
-            char newDirection = directions[random.nextInt(4)];
-            powerfulGhost.updateDirection(newDirection);
+        else if (direction == 'D') {
+            pacmanSprite = Sprites.PACMAN_DOWN;
         }
-    }
-    
-    public void togglePause() {
-        paused = !paused;
-        if (paused) {
-            // Stop timers
-            fruitTimer.stop();
-        } else {
-            // Resume timers
-            fruitTimer.start();
+        else if (direction == 'L') {
+            pacmanSprite = Sprites.PACMAN_LEFT;
         }
-    }
-
-    @Override
-    public void actionPerformed(ActionEvent e) {
-        move();
-        repaint();
-        if (gameOver) {
-            gameLoop.stop();
-            fruitTimer.stop();
+        else if (direction == 'R') {
+            pacmanSprite = Sprites.PACMAN_RIGHT;
         }
     }
 
     @Override
     public void keyTyped(KeyEvent e) {}
 
+    //arrows act as soon as they're pressed (held ones repeat, which is
+    //harmless), everything else on release so holding P doesn't flicker pause
     @Override
-    public void keyPressed(KeyEvent e) {}
+    public void keyPressed(KeyEvent e) {
+        if (isArrow(e.getKeyCode())) {
+            inputs.offer(e.getKeyCode());
+        }
+    }
 
     @Override
     public void keyReleased(KeyEvent e) {
-        if (gameOver) {
-            loadMap();
-            resetPositions();
-            lives = 3;
-            score = 0;
-            speed = 0;
-            lastSpeedIncreaseScore = 0;
-            gameOver = false;
-            gameLoop.start();
-            fruitTimer.start();
-            return;
+        if (e.getKeyCode() != KeyEvent.VK_UNDEFINED && !isArrow(e.getKeyCode())) {
+            inputs.offer(e.getKeyCode());
+        }
+    }
+
+    static boolean isArrow(int keyCode) {
+        return keyCode == KeyEvent.VK_UP || keyCode == KeyEvent.VK_DOWN
+            || keyCode == KeyEvent.VK_LEFT || keyCode == KeyEvent.VK_RIGHT;
+    }
+
+    //act on a key, returns the direction to move in if it was an arrow
+    char handleKey(int keyCode) {
+        if (game.gameOver) {
+            //seeded from the last game, so a session is as repeatable as its first seed
+            game.restart();
+            recording.startOver(game); // saved at game over
+            savePositions();
+            return 0;
         }
         
         // Handle pause/resume
-        if (e.getKeyCode() == KeyEvent.VK_P) {
-            togglePause();
-            return;
+        if (keyCode == KeyEvent.VK_P) {
+            game.togglePause();
+            return 0;
         }
         
-        if (e.getKeyCode() == KeyEvent.VK_R) {
-            if (paused) {
-                togglePause();
+        if (keyCode == KeyEvent.VK_M) {
+            showMetrics = !showMetrics;
+            return 0;
+        }
+
+        if (keyCode == KeyEvent.VK_A) {
+            if (autopilot == null) {
+                autopilot = MonteCarloAgent.realTime(System.nanoTime());
             }
-            return;
+            autopilotOn = !autopilotOn;
+            return 0;
+        }
+
+        if (keyCode == KeyEvent.VK_R) {
+            if (game.paused) {
+                game.togglePause();
+            }
+            return 0;
         }
         
         // Don't process movement if game is paused
-        if (paused) {
-            return;
+        if (game.paused) {
+            return 0;
         }
         
-        // System.out.println("KeyEvent: " + e.getKeyCode());
-        if (e.getKeyCode() == KeyEvent.VK_UP) {
-            pacman.updateDirection('U');
-        }
-        else if (e.getKeyCode() == KeyEvent.VK_DOWN) {
-            pacman.updateDirection('D');
-        }
-        else if (e.getKeyCode() == KeyEvent.VK_LEFT) {
-            pacman.updateDirection('L');
-        }
-        else if (e.getKeyCode() == KeyEvent.VK_RIGHT) {
-            pacman.updateDirection('R');
-        }
-
-        if (pacman.direction == 'U') {
-            pacman.image = pacmanUpImage;
+        // System.out.println("KeyEvent: " + keyCode);
+        if (keyCode == KeyEvent.VK_UP) {
+            return 'U';
         }
-        else if (pacman.direction == 'D') {
-            pacman.image = pacmanDownImage;
+        else if (keyCode == KeyEvent.VK_DOWN) {
+            return 'D';
         }
-        else if (pacman.direction == 'L') {
-            pacman.image = pacmanLeftImage;
+        else if (keyCode == KeyEvent.VK_LEFT) {
+            return 'L';
         }
-        else if (pacman.direction == 'R') {
-            pacman.image = pacmanRightImage;
+        else if (keyCode == KeyEvent.VK_RIGHT) {
+            return 'R';
         }
+        return 0;
     }
-}
\ No newline at end of file
+}
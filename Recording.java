@@ -0,0 +1,147 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+//Everything needed to play a game again: the map, the seed and each input
+//with the tick it was applied on. Ghosts and fruit only depend on the seed,
+//so that's enough for Replay to get the exact same game.
+//
+//On disk: magic, version, seed, the level's size and rows, a byte saying
+//whether later levels are generated and if so the MazeGenerator's seed, then
+//the inputs as (varint ticks since the previous input, direction byte)
+//pairs, which is 2 bytes for most inputs.
+public class Recording {
+    static final int MAGIC = 0x504D5243; // "PMRC"
+    static final int VERSION = 7; // 7: generated levels after the first
+
+    Level level;
+    long seed;
+    boolean generatedLevels; // the levels after the first are MazeGenerator's, from mazeSeed
+    long mazeSeed;
+    long endTick; // how far the game got
+    long[] ticks = new long[256];
+    char[] inputs = new char[256];
+    int inputCount;
+
+    Recording(Level level, long seed) {
+        this.level = level;
+        this.seed = seed;
+    }
+
+    //start recording game from its current (fresh) state
+    static Recording start(Game game) {
+        Recording recording = new Recording(game.level, game.seed);
+        recording.startOver(game);
+        return recording;
+    }
+
+    //record game's next game over this one, keeping the arrays, once this one
+    //has been saved (or isn't wanted)
+    void startOver(Game game) {
+        level = game.level;
+        seed = game.seed;
+        generatedLevels = game.mazes != null;
+        mazeSeed = game.mazes != null ? game.mazes.seed : 0;
+        endTick = 0;
+        inputCount = 0;
+        game.recording = this;
+    }
+
+    void record(long tick, char input) {
+        if (inputCount == ticks.length) {
+            ticks = Arrays.copyOf(ticks, inputCount * 2);
+            inputs = Arrays.copyOf(inputs, inputCount * 2);
+        }
+        ticks[inputCount] = tick;
+        inputs[inputCount] = input;
+        inputCount++;
+        endTick = tick;
+    }
+
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(seed);
+        out.writeInt(level.rowCount);
+        out.writeInt(level.columnCount);
+        byte[] row = new byte[level.columnCount];
+        for (int r = 0; r < level.rowCount; r++) {
+            for (int c = 0; c < level.columnCount; c++) {
+                row[c] = (byte) level.tile(r, c);
+            }
+            out.write(row);
+        }
+        out.writeBoolean(generatedLevels);
+        if (generatedLevels) {
+            out.writeLong(mazeSeed);
+        }
+        writeVarLong(out, endTick);
+        writeVarLong(out, inputCount);
+        long lastTick = 0;
+        for (int i = 0; i < inputCount; i++) {
+            writeVarLong(out, ticks[i] - lastTick);
+            out.writeByte(inputs[i]);
+            lastTick = ticks[i];
+        }
+        out.flush();
+    }
+
+    public static Recording read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a Pac-Man recording");
+        }
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("unsupported recording version " + version);
+        }
+        long seed = in.readLong();
+        int rows = in.readInt();
+        int columns = in.readInt();
+        String[] tileMap = new String[rows];
+        byte[] row = new byte[columns];
+        for (int r = 0; r < rows; r++) {
+            in.readFully(row);
+            tileMap[r] = new String(row, StandardCharsets.US_ASCII);
+        }
+
+        Recording recording = new Recording(Level.of(tileMap), seed);
+        recording.generatedLevels = in.readBoolean();
+        if (recording.generatedLevels) {
+            recording.mazeSeed = in.readLong();
+        }
+        long endTick = readVarLong(in);
+        int count = (int) readVarLong(in);
+        long tick = 0;
+        for (int i = 0; i < count; i++) {
+            tick += readVarLong(in);
+            recording.record(tick, (char) in.readByte());
+        }
+        recording.endTick = endTick;
+        return recording;
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+//Plays a Recording back headlessly, as fast as the simulation runs.
+//A copy of the game is kept every SNAPSHOT_INTERVAL ticks on the way, so
+//seeking backwards (or jumping around a long game) only re-simulates from
+//the nearest snapshot instead of from the start.
+//
+//usage: java Replay file.rec [tick]
+public class Replay {
+    static final int SNAPSHOT_INTERVAL = 1200; // a minute of play at 50ms per tick
+
+    Recording recording;
+    Game game;
+    int nextInput; // index of the next recorded input to apply
+
+    //snapshots.get(i) is the game at tick i*SNAPSHOT_INTERVAL
+    ArrayList<Game> snapshots = new ArrayList<>();
+    ArrayList<Integer> snapshotInputs = new ArrayList<>();
+
+    Replay(Recording recording) {
+        this.recording = recording;
+        this.game = new Game(recording.level, recording.seed);
+        if (recording.generatedLevels) {
+            game.mazes = new MazeGenerator(recording.mazeSeed, recording.level.rowCount, recording.level.columnCount);
+        }
+        takeSnapshot();
+    }
+
+    //play forward (or restore a snapshot and play forward) until the game is
+    //at tick, or it ends
+    public void seek(long tick) {
+        //start from the latest snapshot at or before tick, unless the game is
+        //already somewhere between that snapshot and tick
+        int index = (int) Math.min(tick / SNAPSHOT_INTERVAL, snapshots.size() - 1);
+        long snapshotTick = index * (long) SNAPSHOT_INTERVAL;
+        if (game.tick > tick || game.tick < snapshotTick) {
+            game.copyFrom(snapshots.get(index));
+            nextInput = snapshotInputs.get(index);
+        }
+
+        while (game.tick < tick && !game.gameOver) {
+            if (!game.ready()) {
+                Thread.onSpinWait(); // the next level's being made, and this tick's input has to wait for it
+                continue;
+            }
+            char input = 0;
+            if (nextInput < recording.inputCount && recording.ticks[nextInput] == game.tick) {
+                input = recording.inputs[nextInput++];
+            }
+            game.step(input);
+            if (game.tick % SNAPSHOT_INTERVAL == 0 && game.tick / SNAPSHOT_INTERVAL == snapshots.size()) {
+                takeSnapshot();
+            }
+        }
+    }
+
+    public void runToEnd() {
+        seek(recording.endTick);
+    }
+
+    void takeSnapshot() {
+        snapshots.add(new Game(game));
+        snapshotInputs.add(nextInput);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Recording recording;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(args[0]))) {
+            recording = Recording.read(in);
+        }
+
+        long start = System.nanoTime();
+        Replay replay = new Replay(recording);
+        if (args.length > 1) {
+            replay.seek(Long.parseLong(args[1]));
+        }
+        else {
+            replay.runToEnd();
+        }
+        double millis = (System.nanoTime() - start) / 1e6;
+
+        Game game = replay.game;
+        System.out.println("tick " + game.tick + " of " + recording.endTick + ", score " + game.score
+                + ", lives " + game.lives + (game.gameOver ? ", game over" : "")
+                + String.format(" (%.1f ms)", millis));
+    }
+}
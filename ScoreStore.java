@@ -0,0 +1,685 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+//Every finished game's result, kept on disk: the high scores for the window,
+//and the totals for batch runs and servers that play millions of games.
+//
+//submit() only queues the result, so the game loop never waits on the disk;
+//if MAX_QUEUED results are already waiting it drops this one instead. put()
+//waits for room instead, for batch runs and servers that mustn't lose
+//results and can afford to slow down. A writer thread appends what's queued
+//to scores.log every SYNC_NANOS and fsyncs once for the lot. Results wait at
+//most that long to be durable, and flush() waits for them. Once close() has
+//started, submit() and put() refuse results rather than queue them after the
+//writer's last batch.
+//
+//Each record has a CRC. After a crash (kill -9, or the power going), the log
+//is cut back to its last whole record when it's next opened.
+//
+//The top LEADERBOARD_SIZE results and the totals live in memory, and
+//top() and totals() read a copy of them that the writer publishes after
+//every batch. Every INDEX_NANOS they're also written to scores.idx, a
+//memory-mapped checkpoint that says how much of the log it covers.
+//Opening the store reads the checkpoint and then just the records after it,
+//instead of the whole log.
+//
+//Once the log passes COMPACT_RECORDS, the writer rewrites it as just the
+//leaderboard's records. The header of the new log carries the totals of
+//everything dropped. The new log goes in with an atomic rename, so a crash
+//leaves either the old log or the new one.
+//
+//On disk (big-endian):
+//    scores.log  header: magic, version, generation, the dropped games' totals, CRC
+//                then RECORD_SIZE records: id, seed, ticks, time (ms), score,
+//                fruits eaten, speed, lives lost, CRC
+//    scores.idx  magic, version, generation, log length covered, totals,
+//                leaderboard size, its records, CRC
+//
+//usage: java ScoreStore dir [n]                 (print the top n and the totals)
+//       java ScoreStore bench dir [results]     (put random results, time it and reopening)
+public class ScoreStore implements AutoCloseable {
+    static final int LOG_MAGIC = 0x504D5343; // "PMSC"
+    static final int INDEX_MAGIC = 0x504D5349; // "PMSI"
+    static final int VERSION = 1;
+    static final int RECORD_SIZE = 48;
+    static final int LOG_HEADER_SIZE = 64;
+    static final int INDEX_HEADER_SIZE = 68;
+    static final int LEADERBOARD_SIZE = 1000;
+    static final long SYNC_NANOS = 20_000_000; // longest a result waits to be written and fsynced
+    static final long INDEX_NANOS = 1_000_000_000;
+    static final long COMPACT_RECORDS = 1 << 20; // about 48MB of log
+    static final int MAX_QUEUED = 1 << 16; // beyond this submit() drops results and put() waits
+    static final int BATCH_RECORDS = 1024; // written to the log at a time
+
+    //state: the number of submit()s and put()s under way, and CLOSED once close() starts
+    static final long CLOSED = 1L << 62;
+
+    //the totals, by index
+    static final int GAMES = 0;
+    static final int SCORE = 1;
+    static final int TICKS = 2;
+    static final int FRUITS = 3;
+    static final int LIVES_LOST = 4;
+    static final int TOTALS = 5;
+
+    //one game's result
+    static class Result {
+        long id; // the game's number in the store, given when it's written
+        long seed;
+        long ticks;
+        long time; // when it was submitted, in ms since the epoch
+        int score;
+        int fruitsEaten;
+        int speed; // the speed level it got to
+        int livesLost;
+
+        //higher score first, the earlier game on a tie
+        boolean ranksAbove(Result other) {
+            return score != other.score ? score > other.score : id < other.id;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + id + " score " + score + ", " + ticks + " ticks, speed " + speed + ", "
+                    + livesLost + " lives lost, " + fruitsEaten + " fruits, seed " + seed;
+        }
+    }
+
+    Path directory;
+    Path logPath;
+    Path indexPath;
+    FileChannel log;
+    long logLength; // bytes of whole records (and the header), all written
+    long generation; // bumped by every compaction
+    long[] dropped = new long[TOTALS]; // totals of the games compaction took out of the log
+    MappedByteBuffer index;
+
+    //the writer's own state: only the writer thread (or open(), before it
+    //starts) touches these
+    long[] totals = new long[TOTALS];
+    Result[] leaderboard = new Result[LEADERBOARD_SIZE]; // best first
+    int leaderboardCount;
+    long nextId;
+    ByteBuffer batch = ByteBuffer.allocate(RECORD_SIZE * BATCH_RECORDS);
+    CRC32 crc = new CRC32();
+    long indexedAt;
+
+    //what readers see, replaced whole after every batch
+    volatile Result[] publishedLeaderboard = new Result[0];
+    volatile long[] publishedTotals = new long[TOTALS];
+
+    ConcurrentLinkedQueue<Result> queue = new ConcurrentLinkedQueue<>();
+    AtomicInteger queued = new AtomicInteger();
+    AtomicLong submitted = new AtomicLong();
+    volatile long synced; // how many submitted results are on disk
+    LongAdder droppedResults = new LongAdder();
+    AtomicLong state = new AtomicLong();
+    Thread writer;
+    volatile boolean closing; // set once no submit() or put() can add to the queue any more
+    volatile IOException failure;
+
+    private ScoreStore(Path directory) {
+        this.directory = directory;
+        logPath = directory.resolve("scores.log");
+        indexPath = directory.resolve("scores.idx");
+    }
+
+    //open (or create) the store in directory, recovering from whatever state
+    //a crash left it in, and start its writer thread
+    public static ScoreStore open(Path directory) throws IOException {
+        ScoreStore store = new ScoreStore(directory);
+        store.recover();
+        store.writer = new Thread(store::writeLoop, "score store writer");
+        store.writer.setDaemon(true);
+        store.writer.start();
+        return store;
+    }
+
+    //the store in -Dpacman.scoreDir, or in defaultDirectory when that's not
+    //set (null for no store). Can't-open is reported and gives no store, since
+    //losing the high scores shouldn't stop the game
+    static ScoreStore fromProperty(String defaultDirectory) {
+        String directory = System.getProperty("pacman.scoreDir", defaultDirectory);
+        if (directory == null) {
+            return null;
+        }
+        try {
+            return open(Path.of(directory));
+        } catch (IOException e) {
+            System.err.println("Couldn't open the scores in " + directory + ": " + e);
+            return null;
+        }
+    }
+
+    //queue game's result without waiting. Returns false if it was dropped:
+    //too many queued, or the store is closed or failed
+    public boolean submit(Game game) {
+        return enqueue(game, false);
+    }
+
+    //queue game's result, waiting for room if the writer is behind. Returns
+    //false if the store is closed or failed
+    public boolean put(Game game) {
+        return enqueue(game, true);
+    }
+
+    boolean enqueue(Game game, boolean wait) {
+        //counted in state while it's being queued, so close() can wait for it
+        long current;
+        do {
+            current = state.get();
+            if ((current & CLOSED) != 0) {
+                droppedResults.increment();
+                return false;
+            }
+        } while (!state.compareAndSet(current, current + 1));
+        try {
+            if (!reserve(wait)) {
+                droppedResults.increment();
+                return false;
+            }
+            queue.offer(result(game));
+            return true;
+        } finally {
+            state.decrementAndGet();
+        }
+    }
+
+    //take a place in the queue, waiting for one if wait is set
+    boolean reserve(boolean wait) {
+        while (failure == null) {
+            int count = queued.get();
+            if (count < MAX_QUEUED) {
+                if (queued.compareAndSet(count, count + 1)) {
+                    submitted.incrementAndGet();
+                    return true;
+                }
+            }
+            else if (!wait) {
+                return false;
+            }
+            else {
+                LockSupport.unpark(writer); // don't wait out its SYNC_NANOS
+                LockSupport.parkNanos(100_000);
+            }
+        }
+        return false;
+    }
+
+    static Result result(Game game) {
+        Result result = new Result();
+        result.seed = game.seed;
+        result.ticks = game.tick;
+        result.time = System.currentTimeMillis();
+        result.score = game.score;
+        result.fruitsEaten = game.fruitsEaten;
+        result.speed = game.speed;
+        result.livesLost = 3 - game.lives;
+        return result;
+    }
+
+    //the best n results so far, best first
+    public Result[] top(int n) {
+        Result[] leaderboard = publishedLeaderboard;
+        return Arrays.copyOf(leaderboard, Math.min(n, leaderboard.length));
+    }
+
+    //the best score so far, 0 if there's none
+    public int best() {
+        Result[] leaderboard = publishedLeaderboard;
+        return leaderboard.length > 0 ? leaderboard[0].score : 0;
+    }
+
+    //every game's totals, indexed by GAMES, SCORE, TICKS, FRUITS and LIVES_LOST
+    public long[] totals() {
+        return publishedTotals.clone();
+    }
+
+    //wait until everything submitted so far is on disk
+    public void flush() throws IOException {
+        long target = submitted.get();
+        while (synced < target && failure == null && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(1_000_000);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    //write out what's queued, checkpoint and stop the writer
+    @Override
+    public void close() throws IOException {
+        //no new results, and the ones being queued are in before the writer's last batch
+        state.getAndUpdate(current -> current | CLOSED);
+        while (state.get() != CLOSED) {
+            LockSupport.unpark(writer); // a put() may be waiting for room
+            LockSupport.parkNanos(100_000);
+        }
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    //the writer thread: a batch every SYNC_NANOS, until closed or the disk fails
+    void writeLoop() {
+        try {
+            while (true) {
+                boolean last = closing; // read first, so nothing submitted before close() is left behind
+                int written = writeQueued();
+                if (written > 0) {
+                    log.force(false);
+                    synced += written;
+                    publish();
+                }
+                if ((logLength - LOG_HEADER_SIZE) / RECORD_SIZE > COMPACT_RECORDS) {
+                    compact();
+                }
+                if (last || System.nanoTime() - indexedAt >= INDEX_NANOS) {
+                    writeIndex();
+                }
+                if (last) {
+                    return;
+                }
+                LockSupport.parkNanos(SYNC_NANOS);
+            }
+        } catch (IOException e) {
+            failure = e;
+            System.err.println("Scores are no longer being saved: " + e);
+        }
+    }
+
+    //append everything queued to the log, returns how many results that was
+    int writeQueued() throws IOException {
+        int written = 0;
+        batch.clear();
+        //at most a queue's worth, so results put() as fast as they're written still get fsynced
+        Result result;
+        while (written < MAX_QUEUED && (result = queue.poll()) != null) {
+            queued.decrementAndGet();
+            result.id = nextId++;
+            putRecord(batch, result);
+            add(result);
+            written++;
+            if (!batch.hasRemaining()) {
+                appendBatch();
+            }
+        }
+        appendBatch();
+        return written;
+    }
+
+    void appendBatch() throws IOException {
+        batch.flip();
+        while (batch.hasRemaining()) {
+            logLength += log.write(batch, logLength);
+        }
+        batch.clear();
+    }
+
+    //count a result in the totals and the leaderboard
+    void add(Result result) {
+        totals[GAMES]++;
+        totals[SCORE] += result.score;
+        totals[TICKS] += result.ticks;
+        totals[FRUITS] += result.fruitsEaten;
+        totals[LIVES_LOST] += result.livesLost;
+        nextId = Math.max(nextId, result.id + 1);
+
+        if (leaderboardCount == LEADERBOARD_SIZE && !result.ranksAbove(leaderboard[LEADERBOARD_SIZE - 1])) {
+            return;
+        }
+        int low = 0;
+        int high = leaderboardCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (leaderboard[middle].ranksAbove(result)) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        int moved = Math.min(leaderboardCount, LEADERBOARD_SIZE - 1) - low;
+        System.arraycopy(leaderboard, low, leaderboard, low + 1, moved);
+        leaderboard[low] = result;
+        leaderboardCount = Math.min(leaderboardCount + 1, LEADERBOARD_SIZE);
+    }
+
+    void publish() {
+        publishedLeaderboard = Arrays.copyOf(leaderboard, leaderboardCount);
+        publishedTotals = totals.clone();
+    }
+
+    //rewrite the log as just the leaderboard, with everything else folded
+    //into the new header's totals, and swap it in
+    void compact() throws IOException {
+        Result[] kept = Arrays.copyOf(leaderboard, leaderboardCount);
+        Arrays.sort(kept, (a, b) -> Long.compare(a.id, b.id)); // still in the order they were played
+        long[] newDropped = totals.clone();
+        for (Result result : kept) {
+            newDropped[GAMES]--;
+            newDropped[SCORE] -= result.score;
+            newDropped[TICKS] -= result.ticks;
+            newDropped[FRUITS] -= result.fruitsEaten;
+            newDropped[LIVES_LOST] -= result.livesLost;
+        }
+
+        Path compacted = directory.resolve("scores.log.compact");
+        long length;
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+            putLogHeader(header, generation + 1, newDropped);
+            header.flip();
+            length = 0;
+            while (header.hasRemaining()) {
+                length += out.write(header, length);
+            }
+            batch.clear();
+            for (Result result : kept) {
+                putRecord(batch, result);
+                if (!batch.hasRemaining() || result == kept[kept.length - 1]) {
+                    batch.flip();
+                    while (batch.hasRemaining()) {
+                        length += out.write(batch, length);
+                    }
+                    batch.clear();
+                }
+            }
+            out.force(true);
+        }
+
+        log.close();
+        Files.move(compacted, logPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+        log = FileChannel.open(logPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        logLength = length;
+        generation++;
+        dropped = newDropped;
+        writeIndex();
+    }
+
+    //make a rename durable. Not every platform can open a directory, and
+    //there the rename is as durable as it gets
+    void syncDirectory() {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // nothing more we can do
+        }
+    }
+
+    //checkpoint the leaderboard and totals, and how much of the log they cover
+    void writeIndex() throws IOException {
+        if (index == null) {
+            try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                index = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        INDEX_HEADER_SIZE + (long) LEADERBOARD_SIZE * RECORD_SIZE + 4);
+            }
+        }
+        index.clear();
+        index.putInt(INDEX_MAGIC);
+        index.putInt(VERSION);
+        index.putLong(generation);
+        index.putLong(logLength);
+        for (long total : totals) {
+            index.putLong(total);
+        }
+        index.putInt(leaderboardCount);
+        for (int i = 0; i < leaderboardCount; i++) {
+            putRecord(index, leaderboard[i]);
+        }
+        int length = index.position();
+        crc.reset();
+        crc.update(index.duplicate().flip());
+        index.putInt(length, (int) crc.getValue());
+        indexedAt = System.nanoTime();
+    }
+
+    //load the store: the log header, the checkpoint if it's good and matches
+    //the log, then the records after the checkpoint. A torn or corrupt
+    //record ends the log, and it's cut back to there
+    void recover() throws IOException {
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve("scores.log.compact")); // a compaction that didn't finish
+        log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+        if (log.size() < LOG_HEADER_SIZE) {
+            //new (or died before its header was synced, so nothing's in it)
+            log.truncate(0);
+            putLogHeader(header, 0, dropped);
+            header.flip();
+            while (header.hasRemaining()) {
+                log.write(header, header.position());
+            }
+            log.force(true);
+            syncDirectory();
+        }
+        else {
+            while (header.hasRemaining() && log.read(header, header.position()) >= 0) {
+                // fill it
+            }
+            header.flip();
+            if (header.getInt() != LOG_MAGIC) {
+                throw new IOException(logPath + " isn't a score log");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported score log version " + version);
+            }
+            generation = header.getLong();
+            for (int i = 0; i < TOTALS; i++) {
+                dropped[i] = header.getLong();
+            }
+            crc.reset();
+            crc.update(header.array(), 0, header.position());
+            if (header.getInt() != (int) crc.getValue()) {
+                throw new IOException(logPath + " has a corrupt header");
+            }
+        }
+
+        long from = readIndex() ? logLength : LOG_HEADER_SIZE;
+        if (from == LOG_HEADER_SIZE) {
+            System.arraycopy(dropped, 0, totals, 0, TOTALS);
+            nextId = dropped[GAMES];
+            leaderboardCount = 0;
+        }
+
+        //the records since the checkpoint
+        ByteBuffer chunk = ByteBuffer.allocate(RECORD_SIZE * 16384);
+        long position = from;
+        long size = log.size();
+        boolean torn = false;
+        while (position < size && !torn) {
+            chunk.clear();
+            while (chunk.hasRemaining() && position + chunk.position() < size) {
+                log.read(chunk, position + chunk.position());
+            }
+            chunk.flip();
+            while (chunk.remaining() >= RECORD_SIZE) {
+                Result result = getRecord(chunk);
+                if (result == null) {
+                    torn = true;
+                    break;
+                }
+                add(result);
+                position += RECORD_SIZE;
+            }
+            if (chunk.remaining() > 0 && chunk.remaining() < RECORD_SIZE && position + chunk.remaining() >= size) {
+                torn = true; // half a record at the end
+            }
+        }
+        if (position < size) {
+            log.truncate(position);
+            log.force(true);
+        }
+        logLength = position;
+        synced = 0;
+        publish();
+        writeIndex();
+    }
+
+    //load the checkpoint, returns false if there's none that can be trusted
+    boolean readIndex() throws IOException {
+        if (!Files.exists(indexPath)) {
+            return false;
+        }
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < INDEX_HEADER_SIZE + 4 || size > INDEX_HEADER_SIZE + (long) LEADERBOARD_SIZE * RECORD_SIZE + 4) {
+                return false;
+            }
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (in.getInt() != INDEX_MAGIC || in.getInt() != VERSION || in.getLong() != generation) {
+            return false;
+        }
+        long length = in.getLong();
+        long[] indexTotals = new long[TOTALS];
+        for (int i = 0; i < TOTALS; i++) {
+            indexTotals[i] = in.getLong();
+        }
+        int count = in.getInt();
+        if (count < 0 || count > LEADERBOARD_SIZE || length < LOG_HEADER_SIZE || length > log.size()
+                || (length - LOG_HEADER_SIZE) % RECORD_SIZE != 0) {
+            return false;
+        }
+        int end = INDEX_HEADER_SIZE + count * RECORD_SIZE;
+        crc.reset();
+        crc.update(in.duplicate().position(0).limit(end));
+        if (in.getInt(end) != (int) crc.getValue()) {
+            return false;
+        }
+        Result[] board = new Result[count];
+        for (int i = 0; i < count; i++) {
+            board[i] = getRecord(in);
+            if (board[i] == null) {
+                return false;
+            }
+        }
+
+        logLength = length;
+        System.arraycopy(indexTotals, 0, totals, 0, TOTALS);
+        System.arraycopy(board, 0, leaderboard, 0, count);
+        leaderboardCount = count;
+        nextId = totals[GAMES];
+        return true;
+    }
+
+    void putLogHeader(ByteBuffer out, long generation, long[] dropped) {
+        int start = out.position();
+        out.putInt(LOG_MAGIC);
+        out.putInt(VERSION);
+        out.putLong(generation);
+        for (long total : dropped) {
+            out.putLong(total);
+        }
+        crc.reset();
+        crc.update(out.duplicate().flip().position(start));
+        out.putInt((int) crc.getValue());
+        out.position(start + LOG_HEADER_SIZE);
+    }
+
+    void putRecord(ByteBuffer out, Result result) {
+        int start = out.position();
+        out.putLong(result.id);
+        out.putLong(result.seed);
+        out.putLong(result.ticks);
+        out.putLong(result.time);
+        out.putInt(result.score);
+        out.putInt(result.fruitsEaten);
+        out.putShort((short) result.speed);
+        out.put((byte) result.livesLost);
+        out.put((byte) 0);
+        crc.reset();
+        crc.update(out.duplicate().flip().position(start));
+        out.putInt((int) crc.getValue());
+    }
+
+    //the next record, or null (and the buffer where it was) if its CRC is wrong
+    Result getRecord(ByteBuffer in) {
+        int start = in.position();
+        crc.reset();
+        crc.update(in.duplicate().limit(start + RECORD_SIZE - 4));
+        if (in.getInt(start + RECORD_SIZE - 4) != (int) crc.getValue()) {
+            return null;
+        }
+        Result result = new Result();
+        result.id = in.getLong();
+        result.seed = in.getLong();
+        result.ticks = in.getLong();
+        result.time = in.getLong();
+        result.score = in.getInt();
+        result.fruitsEaten = in.getInt();
+        result.speed = in.getShort();
+        result.livesLost = in.get();
+        in.get();
+        in.getInt();
+        return result;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("bench")) {
+            Path directory = Path.of(args[1]);
+            int results = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+
+            ScoreStore store = open(directory);
+            Game game = new Game(0);
+            GameRandom random = new GameRandom(0);
+            long start = System.nanoTime();
+            for (int i = 0; i < results; i++) {
+                game.score = random.nextInt(5000);
+                game.tick = random.nextInt(12000);
+                store.put(game);
+            }
+            store.close();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println("submitted " + results + " in " + String.format("%.2f", seconds) + "s ("
+                    + String.format("%.0f", results / seconds) + " results/s), log "
+                    + Files.size(store.logPath) / 1024 + "KB");
+
+            start = System.nanoTime();
+            store = open(directory);
+            System.out.println("reopened in " + String.format("%.1f", (System.nanoTime() - start) / 1e6) + " ms, "
+                    + store.totals()[GAMES] + " games, best " + store.best());
+            store.close();
+            return;
+        }
+
+        ScoreStore store = open(Path.of(args[0]));
+        int n = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        for (Result result : store.top(n)) {
+            System.out.println(result);
+        }
+        long[] totals = store.totals();
+        System.out.println(totals[GAMES] + " games, mean score "
+                + (totals[GAMES] > 0 ? totals[SCORE] / totals[GAMES] : 0) + ", " + totals[TICKS] + " ticks, "
+                + totals[FRUITS] + " fruits eaten, " + totals[LIVES_LOST] + " lives lost");
+        store.close();
+    }
+}
@@ -0,0 +1,360 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+//What a spectator needs to draw a game at one tick, and its binary encoding.
+//
+//A snapshot is either FULL, or a DELTA against an earlier snapshot (the
+//baseline) that the other end is known to have. Deltas only carry what
+//changed: actor moves as small signed varints, the food tiles that changed
+//and the few numbers that did, so a typical tick is a couple of dozen bytes.
+//Encoding writes straight into the caller's ByteBuffer and decoding reads
+//straight out of one, with no streams or byte[] copies in between, and
+//neither allocates once the arrays are sized.
+//
+//Layout (varints are 7 bits a byte, signed ones zigzagged):
+//    byte type, varlong sequence, [DELTA: varlong sequence - baseline sequence]
+//    varlong tick, FULL: varint score lives speed | DELTA: signed deltas, byte flags
+//    FULL:  varint level rows columns actorCount, per actor (byte kind, varint x y, byte look),
+//           the food bitset as longs
+//    DELTA: changed-actor bitmask, per changed actor (signed dx dy, byte look),
+//           varint changed food count, ascending tiles as varint gaps
+//    (look is the direction letter, with the top bit set for a frightened ghost;
+//    level is Game.levelNumber, which maze to draw since snapshots don't carry walls)
+//    varint fruitCount, per fruit (varint tile, byte type)
+public class Snapshot {
+    static final byte FULL = 1;
+    static final byte DELTA = 2;
+
+    long sequence; // numbered by the sender, so restarts don't confuse baselines
+    long tick;
+    int score;
+    int lives;
+    int speed;
+    boolean gameOver;
+    boolean paused;
+
+    int level; // Game.levelNumber, a new one always gets a FULL snapshot
+    int rowCount;
+    int columnCount;
+    int actorCount;
+    char[] kind = new char[0];
+    int[] x = new int[0];
+    int[] y = new int[0];
+    char[] direction = new char[0];
+    boolean[] frightened = new boolean[0];
+
+    long[] food = new long[0]; // a bit per tile, set while its food is uneaten
+
+    int fruitCount;
+    int[] fruitTiles = new int[0];
+    byte[] fruitTypes = new byte[0];
+
+    void capture(Game game) {
+        tick = game.tick;
+        score = game.score;
+        lives = game.lives;
+        speed = game.speed;
+        gameOver = game.gameOver;
+        paused = game.paused;
+        level = game.levelNumber;
+
+        resize(game.rowCount, game.columnCount, game.actorCount);
+        System.arraycopy(game.kind, 0, kind, 0, actorCount);
+        System.arraycopy(game.actorX, 0, x, 0, actorCount);
+        System.arraycopy(game.actorY, 0, y, 0, actorCount);
+        System.arraycopy(game.direction, 0, direction, 0, actorCount);
+        System.arraycopy(game.frightened, 0, frightened, 0, actorCount);
+
+        System.arraycopy(game.foodBits, 0, food, 0, food.length);
+
+        resizeFruits(game.fruitCount);
+        for (int i = 0; i < fruitCount; i++) {
+            fruitTiles[i] = game.fruitTiles[i];
+            fruitTypes[i] = game.fruitGrid[fruitTiles[i]];
+        }
+    }
+
+    void copyFrom(Snapshot other) {
+        sequence = other.sequence;
+        tick = other.tick;
+        score = other.score;
+        lives = other.lives;
+        speed = other.speed;
+        gameOver = other.gameOver;
+        paused = other.paused;
+        level = other.level;
+        resize(other.rowCount, other.columnCount, other.actorCount);
+        System.arraycopy(other.kind, 0, kind, 0, actorCount);
+        System.arraycopy(other.x, 0, x, 0, actorCount);
+        System.arraycopy(other.y, 0, y, 0, actorCount);
+        System.arraycopy(other.direction, 0, direction, 0, actorCount);
+        System.arraycopy(other.frightened, 0, frightened, 0, actorCount);
+        System.arraycopy(other.food, 0, food, 0, food.length);
+        resizeFruits(other.fruitCount);
+        System.arraycopy(other.fruitTiles, 0, fruitTiles, 0, fruitCount);
+        System.arraycopy(other.fruitTypes, 0, fruitTypes, 0, fruitCount);
+    }
+
+    void resize(int rows, int columns, int actors) {
+        rowCount = rows;
+        columnCount = columns;
+        actorCount = actors;
+        if (kind.length < actors) {
+            kind = new char[actors];
+            x = new int[actors];
+            y = new int[actors];
+            direction = new char[actors];
+            frightened = new boolean[actors];
+        }
+        int words = (rows * columns + 63) >>> 6;
+        if (food.length != words) {
+            food = new long[words];
+        }
+    }
+
+    void resizeFruits(int count) {
+        fruitCount = count;
+        if (fruitTiles.length < count) {
+            fruitTiles = new int[count];
+            fruitTypes = new byte[count];
+        }
+    }
+
+    //a delta needs the same maze and cast as the baseline. Generated levels
+    //are all the same size, so that's the same level, not just the same size
+    boolean canDeltaFrom(Snapshot baseline) {
+        if (baseline == null || baseline.level != level || baseline.rowCount != rowCount
+                || baseline.columnCount != columnCount || baseline.actorCount != actorCount) {
+            return false;
+        }
+        for (int actor = 0; actor < actorCount; actor++) {
+            if (baseline.kind[actor] != kind[actor]) return false;
+        }
+        return true;
+    }
+
+    //write this snapshot, as a delta against baseline when it can be (baseline may be null)
+    void encode(ByteBuffer out, Snapshot baseline) {
+        boolean delta = canDeltaFrom(baseline);
+        out.put(delta ? DELTA : FULL);
+        putVarLong(out, sequence);
+        if (delta) {
+            putVarLong(out, sequence - baseline.sequence);
+        }
+        putVarLong(out, tick);
+        if (delta) {
+            putVarLong(out, zigzag(score - baseline.score));
+            putVarLong(out, zigzag(lives - baseline.lives));
+            putVarLong(out, zigzag(speed - baseline.speed));
+        }
+        else {
+            putVarLong(out, score);
+            putVarLong(out, lives);
+            putVarLong(out, speed);
+        }
+        out.put((byte) ((gameOver ? 1 : 0) | (paused ? 2 : 0)));
+
+        if (delta) {
+            //which actors changed, a bit each, then just those
+            for (int first = 0; first < actorCount; first += 8) {
+                int mask = 0;
+                for (int actor = first; actor < Math.min(first + 8, actorCount); actor++) {
+                    if (actorChanged(actor, baseline)) {
+                        mask |= 1 << (actor - first);
+                    }
+                }
+                out.put((byte) mask);
+            }
+            for (int actor = 0; actor < actorCount; actor++) {
+                if (actorChanged(actor, baseline)) {
+                    putVarLong(out, zigzag(x[actor] - baseline.x[actor]));
+                    putVarLong(out, zigzag(y[actor] - baseline.y[actor]));
+                    out.put(look(actor));
+                }
+            }
+
+            int changed = 0;
+            for (int word = 0; word < food.length; word++) {
+                changed += Long.bitCount(food[word] ^ baseline.food[word]);
+            }
+            putVarLong(out, changed);
+            int previous = 0;
+            for (int word = 0; word < food.length; word++) {
+                long bits = food[word] ^ baseline.food[word];
+                while (bits != 0) {
+                    int tile = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    putVarLong(out, tile - previous);
+                    previous = tile;
+                    bits &= bits - 1;
+                }
+            }
+        }
+        else {
+            putVarLong(out, level);
+            putVarLong(out, rowCount);
+            putVarLong(out, columnCount);
+            putVarLong(out, actorCount);
+            for (int actor = 0; actor < actorCount; actor++) {
+                out.put((byte) kind[actor]);
+                putVarLong(out, x[actor]);
+                putVarLong(out, y[actor]);
+                out.put(look(actor));
+            }
+            for (long word : food) {
+                out.putLong(word);
+            }
+        }
+
+        putVarLong(out, fruitCount);
+        for (int i = 0; i < fruitCount; i++) {
+            putVarLong(out, fruitTiles[i]);
+            out.put(fruitTypes[i]);
+        }
+    }
+
+    //read a snapshot written by encode(). baseline must be the snapshot a
+    //DELTA was encoded against (see baselineSequence())
+    void decode(ByteBuffer in, Snapshot baseline) {
+        byte type = in.get();
+        boolean delta = type == DELTA;
+        if (!delta && type != FULL) {
+            throw new IllegalArgumentException("not a snapshot: type " + type);
+        }
+        sequence = getVarLong(in);
+        if (delta) {
+            long baselineSequence = sequence - getVarLong(in);
+            if (baseline == null || baseline.sequence != baselineSequence) {
+                throw new IllegalArgumentException("snapshot " + sequence + " needs baseline " + baselineSequence);
+            }
+            long sequence = this.sequence;
+            copyFrom(baseline);
+            this.sequence = sequence;
+        }
+        tick = getVarLong(in);
+        if (delta) {
+            score += unzigzag(getVarLong(in));
+            lives += unzigzag(getVarLong(in));
+            speed += unzigzag(getVarLong(in));
+        }
+        else {
+            score = (int) getVarLong(in);
+            lives = (int) getVarLong(in);
+            speed = (int) getVarLong(in);
+        }
+        int flags = in.get();
+        gameOver = (flags & 1) != 0;
+        paused = (flags & 2) != 0;
+
+        if (delta) {
+            int maskStart = in.position();
+            in.position(maskStart + (actorCount + 7) / 8);
+            for (int actor = 0; actor < actorCount; actor++) {
+                if ((in.get(maskStart + actor / 8) & (1 << (actor % 8))) != 0) {
+                    x[actor] += unzigzag(getVarLong(in));
+                    y[actor] += unzigzag(getVarLong(in));
+                    setLook(actor, in.get());
+                }
+            }
+
+            int changed = (int) getVarLong(in);
+            int tile = 0;
+            for (int i = 0; i < changed; i++) {
+                tile += (int) getVarLong(in);
+                food[tile >>> 6] ^= 1L << tile;
+            }
+        }
+        else {
+            level = (int) getVarLong(in);
+            int rows = (int) getVarLong(in);
+            int columns = (int) getVarLong(in);
+            resize(rows, columns, (int) getVarLong(in));
+            for (int actor = 0; actor < actorCount; actor++) {
+                kind[actor] = (char) in.get();
+                x[actor] = (int) getVarLong(in);
+                y[actor] = (int) getVarLong(in);
+                setLook(actor, in.get());
+            }
+            for (int word = 0; word < food.length; word++) {
+                food[word] = in.getLong();
+            }
+        }
+
+        resizeFruits((int) getVarLong(in));
+        for (int i = 0; i < fruitCount; i++) {
+            fruitTiles[i] = (int) getVarLong(in);
+            fruitTypes[i] = in.get();
+        }
+    }
+
+    boolean actorChanged(int actor, Snapshot baseline) {
+        return x[actor] != baseline.x[actor] || y[actor] != baseline.y[actor]
+                || direction[actor] != baseline.direction[actor] || frightened[actor] != baseline.frightened[actor];
+    }
+
+    byte look(int actor) {
+        return (byte) (direction[actor] | (frightened[actor] ? 0x80 : 0));
+    }
+
+    void setLook(int actor, byte look) {
+        direction[actor] = (char) (look & 0x7F);
+        frightened[actor] = (look & 0x80) != 0;
+    }
+
+    //the sequence of the snapshot that the encoded snapshot at the buffer's
+    //position needs as its baseline, -1 for a full one. Doesn't move the buffer
+    static long baselineSequence(ByteBuffer in) {
+        int start = in.position();
+        byte type = in.get();
+        long baseline = -1;
+        if (type == DELTA) {
+            long sequence = getVarLong(in);
+            baseline = sequence - getVarLong(in);
+        }
+        in.position(start);
+        return baseline;
+    }
+
+    boolean sameState(Snapshot other) {
+        if (tick != other.tick || score != other.score || lives != other.lives || speed != other.speed
+                || gameOver != other.gameOver || paused != other.paused || !canDeltaFrom(other)
+                || fruitCount != other.fruitCount) {
+            return false;
+        }
+        for (int actor = 0; actor < actorCount; actor++) {
+            if (actorChanged(actor, other)) {
+                return false;
+            }
+        }
+        for (int i = 0; i < fruitCount; i++) {
+            if (fruitTiles[i] != other.fruitTiles[i] || fruitTypes[i] != other.fruitTypes[i]) return false;
+        }
+        return Arrays.equals(food, other.food);
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void putVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
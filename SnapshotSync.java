@@ -0,0 +1,207 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+//One end of a snapshot stream: the sender encodes the game every tick as a
+//delta against the newest snapshot the receiver has acknowledged, and the
+//receiver decodes them against its copy of that same snapshot and sends back
+//the sequence it got. Both ends keep the last HISTORY snapshots, so acks can
+//lag (or go missing) by up to that many ticks before the sender falls back to
+//a full snapshot.
+//
+//On the wire each snapshot is an int length then the Snapshot encoding, and
+//each ack is a long sequence.
+//
+//usage: java SnapshotSync [ticks] [seed]  (streams a game over loopback and
+//checks every decoded snapshot against the real game)
+public class SnapshotSync {
+    static final int HISTORY = 32;
+    static final int DEMO_IN_FLIGHT = 8; // ~400ms round trip at 20 ticks a second
+
+    Snapshot[] history = new Snapshot[HISTORY]; // by sequence % HISTORY
+    Snapshot current = new Snapshot();
+    long nextSequence;
+    long acknowledged = -1; // sender: newest sequence the receiver has
+
+    SnapshotSync() {
+        for (int i = 0; i < HISTORY; i++) {
+            history[i] = new Snapshot();
+            history[i].sequence = -1;
+        }
+    }
+
+    //the snapshot with this sequence, if it's still in the history
+    Snapshot find(long sequence) {
+        if (sequence < 0) return null;
+        Snapshot snapshot = history[(int) (sequence % HISTORY)];
+        return snapshot.sequence == sequence ? snapshot : null;
+    }
+
+    //sender: write the game's state to out
+    void encode(Game game, ByteBuffer out) {
+        current.capture(game);
+        current.sequence = nextSequence++;
+        current.encode(out, find(acknowledged));
+        history[(int) (current.sequence % HISTORY)].copyFrom(current);
+    }
+
+    //sender: the receiver has decoded sequence
+    void acknowledge(long sequence) {
+        if (sequence > acknowledged) {
+            acknowledged = sequence;
+        }
+    }
+
+    //receiver: read the next snapshot from in. The returned snapshot is only
+    //good until the next call
+    Snapshot decode(ByteBuffer in) {
+        long baseline = Snapshot.baselineSequence(in);
+        current.decode(in, baseline < 0 ? null : find(baseline));
+        history[(int) (current.sequence % HISTORY)].copyFrom(current);
+        return current;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+
+            long[] bytes = new long[3]; // full, delta, naive
+            long[] counts = new long[2]; // full, delta
+            Thread sender = new Thread(() -> {
+                try (SocketChannel channel = server.accept()) {
+                    send(channel, ticks, seed, bytes, counts);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }, "snapshot sender");
+            sender.start();
+
+            int checked = 0;
+            try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port))) {
+                checked = receive(channel, seed);
+            }
+            sender.join();
+
+            long snapshots = counts[0] + counts[1];
+            System.out.println(snapshots + " snapshots, " + checked + " checked against the game");
+            System.out.println("full: " + counts[0] + ", mean " + bytes[0] / Math.max(1, counts[0]) + " bytes");
+            System.out.println("delta: " + counts[1] + ", mean " + String.format("%.1f", (double) bytes[1] / Math.max(1, counts[1])) + " bytes");
+            System.out.println("naive (every field as an int, a byte per tile): mean " + bytes[2] / snapshots + " bytes, "
+                    + String.format("%.1fx", (double) bytes[2] / (bytes[0] + bytes[1])) + " the bytes sent");
+        }
+    }
+
+    //play a game and stream it, reading acks whenever they've arrived
+    static void send(SocketChannel channel, int ticks, long seed, long[] bytes, long[] counts) throws IOException {
+        Game game = new Game(seed);
+        Agent agent = Agent.random(seed);
+        SnapshotSync sync = new SnapshotSync();
+        ByteBuffer out = ByteBuffer.allocateDirect(1 << 16);
+        ByteBuffer acks = ByteBuffer.allocateDirect(1 << 12);
+        channel.configureBlocking(false);
+
+        for (int i = 0; i < ticks; i++) {
+            if (game.gameOver) {
+                game.restart(game.random.nextLong());
+            }
+            game.step(agent.nextInput(game));
+
+            out.clear();
+            out.position(4);
+            sync.encode(game, out);
+            int length = out.position() - 4;
+            out.putInt(0, length);
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            counts[out.get(4) == Snapshot.FULL ? 0 : 1]++;
+            bytes[out.get(4) == Snapshot.FULL ? 0 : 1] += length;
+            bytes[2] += 4 * 5 + game.actorCount * 16 + game.rowCount * game.columnCount + game.fruitCount * 8;
+
+            //the demo runs flat out, so wait for acks as if the round trip
+            //were DEMO_IN_FLIGHT ticks, instead of racing past the history
+            do {
+                channel.read(acks);
+                acks.flip();
+                while (acks.remaining() >= 8) {
+                    sync.acknowledge(acks.getLong());
+                }
+                acks.compact();
+            } while (sync.nextSequence - 1 - sync.acknowledged > DEMO_IN_FLIGHT);
+        }
+        out.clear();
+        out.putInt(-1).flip(); // end of stream
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        //let the receiver finish acking before hanging up
+        channel.configureBlocking(true);
+        while (channel.read(acks) >= 0) {
+            acks.clear();
+        }
+    }
+
+    //decode snapshots and ack them, checking each one against a copy of the
+    //game played the same way
+    static int receive(SocketChannel channel, long seed) throws IOException {
+        Game game = new Game(seed);
+        Agent agent = Agent.random(seed);
+        Snapshot expected = new Snapshot();
+        SnapshotSync sync = new SnapshotSync();
+        ByteBuffer in = ByteBuffer.allocateDirect(1 << 16);
+        ByteBuffer ack = ByteBuffer.allocateDirect(8);
+        int checked = 0;
+
+        while (true) {
+            if (!readAtLeast(channel, in, 4)) {
+                return checked;
+            }
+            int length = in.getInt(0);
+            if (length < 0 || !readAtLeast(channel, in, 4 + length)) {
+                return checked; // end of stream
+            }
+            in.flip();
+            in.position(4);
+            int end = 4 + length;
+            int limit = in.limit();
+            in.limit(end);
+            Snapshot snapshot = sync.decode(in);
+            in.limit(limit);
+            in.position(end);
+            in.compact();
+
+            if (game.gameOver) {
+                game.restart(game.random.nextLong());
+            }
+            game.step(agent.nextInput(game));
+            expected.capture(game);
+            if (!snapshot.sameState(expected)) {
+                throw new IllegalStateException("snapshot " + snapshot.sequence + " doesn't match the game");
+            }
+            checked++;
+
+            ack.clear();
+            ack.putLong(snapshot.sequence).flip();
+            while (ack.hasRemaining()) {
+                channel.write(ack);
+            }
+        }
+    }
+
+    static boolean readAtLeast(SocketChannel channel, ByteBuffer in, int bytes) throws IOException {
+        while (in.position() < bytes) {
+            if (channel.read(in) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
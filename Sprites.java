@@ -0,0 +1,185 @@
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import javax.imageio.ImageIO;
+
+//Every sprite the game draws, in one image.
+//
+//The PNGs next to the sources are packed by `java Sprites` into atlas.png, a
+//row of 16x16 cells (smaller sprites centered in theirs), so startup decodes
+//one image instead of one per sprite. At startup that's scaled up once into
+//an atlas for the tile size, along with the fruits and the bigger powerful
+//ghost, which are drawn rather than loaded. Drawing a sprite is then a 1:1
+//copy of its cell into the pixels of the frame PacMan is putting together.
+public class Sprites {
+    static final int SOURCE_SIZE = 16;
+    static final String ATLAS = "atlas.png";
+
+    //the sprites in atlas.png, in this order
+    static final String[] FILES = {
+        "wall.png", "blueGhost.png", "orangeGhost.png", "pinkGhost.png", "redGhost.png",
+        "pacmanUp.png", "pacmanDown.png", "pacmanLeft.png", "pacmanRight.png",
+        "scaredGhost.png", "powerFood.png",
+    };
+    static final int WALL = 0;
+    static final int BLUE_GHOST = 1;
+    static final int ORANGE_GHOST = 2;
+    static final int PINK_GHOST = 3;
+    static final int RED_GHOST = 4;
+    static final int PACMAN_UP = 5;
+    static final int PACMAN_DOWN = 6;
+    static final int PACMAN_LEFT = 7;
+    static final int PACMAN_RIGHT = 8;
+    static final int SCARED_GHOST = 9;
+    static final int POWER_FOOD = 10;
+    //and the ones that are only made at startup
+    static final int POWERFUL_GHOST = 11; // the red ghost, 4 pixels bigger
+    static final int FRUIT = 12; // FRUIT + fruit type - 1, types 1..3
+    static final int COUNT = 15;
+    static final int COLUMNS = 8;
+
+    static final Color STEM_COLOR = new Color(139, 69, 19); // Brown for stem
+    static final Color LEAF_COLOR = new Color(0, 100, 0); // Dark green for leaf
+
+    static HashMap<Integer, Sprites> cache = new HashMap<>(); // by tile size
+
+    int tileSize;
+    int cellSize; // room for the biggest sprite, the powerful ghost
+    BufferedImage atlas;
+    int[] pixels; // the atlas's, ARGB, row by row
+
+    //the sprites for tileSize, made the first time they're asked for
+    static synchronized Sprites forTileSize(int tileSize) {
+        Sprites sprites = cache.get(tileSize);
+        if (sprites == null) {
+            sprites = new Sprites(tileSize);
+            cache.put(tileSize, sprites);
+        }
+        return sprites;
+    }
+
+    Sprites(int tileSize) {
+        this.tileSize = tileSize;
+        cellSize = tileSize + 4;
+        int width = COLUMNS * cellSize;
+        int height = (COUNT + COLUMNS - 1) / COLUMNS * cellSize;
+        atlas = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+
+        BufferedImage source = readAtlas();
+        Graphics2D g = atlas.createGraphics();
+        for (int sprite = 0; sprite < FILES.length; sprite++) {
+            scale(g, source, sprite, sprite, tileSize);
+        }
+        scale(g, source, RED_GHOST, POWERFUL_GHOST, tileSize + 4);
+        for (int fruitType = 1; fruitType <= 3; fruitType++) {
+            drawFruit(g, fruitType, x(FRUIT + fruitType - 1), y(FRUIT + fruitType - 1));
+        }
+        g.dispose();
+        pixels = ((DataBufferInt) atlas.getRaster().getDataBuffer()).getData();
+    }
+
+    static BufferedImage readAtlas() {
+        try (InputStream in = Sprites.class.getResourceAsStream(ATLAS)) {
+            if (in == null) {
+                throw new IllegalStateException(ATLAS + " is missing, run java Sprites to make it");
+            }
+            return ImageIO.read(in);
+        } catch (IOException e) {
+            throw new IllegalStateException("couldn't read " + ATLAS, e);
+        }
+    }
+
+    void scale(Graphics2D g, BufferedImage source, int from, int to, int size) {
+        int sx = from * SOURCE_SIZE;
+        g.drawImage(source, x(to), y(to), x(to) + size, y(to) + size, sx, 0, sx + SOURCE_SIZE, SOURCE_SIZE, null);
+    }
+
+    int x(int sprite) {
+        return (sprite % COLUMNS) * cellSize;
+    }
+
+    int y(int sprite) {
+        return (sprite / COLUMNS) * cellSize;
+    }
+
+    //draw sprite over the pixels of a width x height RGB image (TYPE_INT_RGB)
+    //at x, y, clipped to it
+    void draw(int[] target, int width, int height, int sprite, int x, int y) {
+        int size = sprite == POWERFUL_GHOST ? tileSize + 4 : tileSize;
+        int firstRow = Math.max(0, -y);
+        int lastRow = Math.min(size, height - y);
+        int firstColumn = Math.max(0, -x);
+        int lastColumn = Math.min(size, width - x);
+        int atlasWidth = atlas.getWidth();
+        for (int row = firstRow; row < lastRow; row++) {
+            int from = (y(sprite) + row) * atlasWidth + x(sprite);
+            int to = (y + row) * width + x;
+            for (int column = firstColumn; column < lastColumn; column++) {
+                int argb = pixels[from + column];
+                int alpha = argb >>> 24;
+                if (alpha == 255) {
+                    target[to + column] = argb & 0xFFFFFF;
+                }
+                else if (alpha != 0) {
+                    target[to + column] = blend(argb, alpha, target[to + column]);
+                }
+            }
+        }
+    }
+
+    //argb (not premultiplied) over an opaque rgb
+    static int blend(int argb, int alpha, int rgb) {
+        int red = ((argb >> 16 & 0xFF) * alpha + (rgb >> 16 & 0xFF) * (255 - alpha)) / 255;
+        int green = ((argb >> 8 & 0xFF) * alpha + (rgb >> 8 & 0xFF) * (255 - alpha)) / 255;
+        int blue = ((argb & 0xFF) * alpha + (rgb & 0xFF) * (255 - alpha)) / 255;
+        return red << 16 | green << 8 | blue;
+    }
+
+    static void drawFruit(Graphics g, int fruitType, int fruitX, int fruitY) {
+        if (fruitType == 1) {
+            // Cherry (red circle)
+            g.setColor(Color.RED);
+            g.fillOval(fruitX + 8, fruitY + 8, 16, 16);
+            g.setColor(STEM_COLOR);
+            g.fillRect(fruitX + 16, fruitY + 4, 2, 8);
+        } else if (fruitType == 2) {
+            // Strawberry (red triangle with green top)
+            g.setColor(Color.RED);
+            int[] xPoints = {fruitX + 16, fruitX + 8, fruitX + 24};
+            int[] yPoints = {fruitY + 24, fruitY + 8, fruitY + 8};
+            g.fillPolygon(xPoints, yPoints, 3);
+            g.setColor(Color.GREEN);
+            g.fillRect(fruitX + 14, fruitY + 4, 4, 4);
+        } else if (fruitType == 3) {
+            // Orange (orange circle)
+            g.setColor(Color.ORANGE);
+            g.fillOval(fruitX + 8, fruitY + 8, 16, 16);
+            g.setColor(LEAF_COLOR);
+            g.fillOval(fruitX + 16, fruitY + 4, 4, 4);
+        }
+    }
+
+    //pack the sprite PNGs in the current directory into atlas.png
+    public static void main(String[] args) throws IOException {
+        BufferedImage atlas = new BufferedImage(FILES.length * SOURCE_SIZE, SOURCE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = atlas.createGraphics();
+        for (int sprite = 0; sprite < FILES.length; sprite++) {
+            BufferedImage image = ImageIO.read(new File(FILES[sprite]));
+            if (image.getWidth() > SOURCE_SIZE || image.getHeight() > SOURCE_SIZE) {
+                throw new IllegalArgumentException(FILES[sprite] + " is bigger than " + SOURCE_SIZE + "x" + SOURCE_SIZE);
+            }
+            int x = sprite * SOURCE_SIZE + (SOURCE_SIZE - image.getWidth()) / 2;
+            int y = (SOURCE_SIZE - image.getHeight()) / 2;
+            g.drawImage(image, x, y, null);
+        }
+        g.dispose();
+        ImageIO.write(atlas, "png", new File(ATLAS));
+        System.out.println("packed " + FILES.length + " sprites into " + ATLAS);
+    }
+}
@@ -0,0 +1,188 @@
+import java.util.Arrays;
+
+//Timers keyed on game ticks: "in n ticks, do this". Game uses it for fruit
+//spawning and expiry and for frightened ghosts, and since it only moves when
+//the game steps, pausing or running headless faster than real time just works.
+//
+//It's a hierarchical timing wheel: LEVELS rings of SLOTS slots, level 0 a
+//slot per tick, each level above a slot per whole turn of the one below. A
+//timer goes in the lowest level its delay fits in, and when a slot of a
+//higher level comes round its timers are spread down into the levels below,
+//so each one is moved at most LEVELS - 1 times on its way to firing.
+//
+//Timers are int ids into parallel arrays, each slot is a circular doubly
+//linked list through them, and freed ids are reused, so schedule() and
+//cancel() are O(1) and nothing is allocated once the arrays are big enough.
+//Everything is plain arrays so a Game can copy its timers with copyFrom().
+public class TimerWheel {
+    static final int SLOT_BITS = 6;
+    static final int SLOTS = 1 << SLOT_BITS;
+    static final int LEVELS = 4;
+    static final long MAX_DELAY = (1L << (SLOT_BITS * LEVELS)) - 1; // ~9 days at 20 ticks a second
+    static final int HEADS = SLOTS * LEVELS;
+    static final int INITIAL_TIMERS = 16;
+
+    long now; // the tick the wheel is at
+    int pending; // timers scheduled and not yet fired or cancelled
+
+    //entries 0..HEADS-1 are the list heads of the slots, level by level, and
+    //timers are the entries after them. A free timer has prev -1 and is
+    //chained through next from freeList
+    int[] next;
+    int[] prev;
+    long[] due;
+    int[] event;
+    int[] data;
+    int freeList = -1;
+
+    TimerWheel() {
+        next = new int[HEADS + INITIAL_TIMERS];
+        prev = new int[next.length];
+        due = new long[next.length];
+        event = new int[next.length];
+        data = new int[next.length];
+        clear(0);
+    }
+
+    //drop every pending timer and set the wheel to tick now
+    void clear(long now) {
+        this.now = now;
+        pending = 0;
+        for (int head = 0; head < HEADS; head++) {
+            next[head] = head;
+            prev[head] = head;
+        }
+        freeList = -1;
+        for (int timer = next.length - 1; timer >= HEADS; timer--) {
+            free(timer);
+        }
+    }
+
+    //call back with event and data in delay ticks (at least 1). Returns the
+    //timer's id, for cancel()
+    int schedule(long delay, int event, int data) {
+        if (delay < 1 || delay > MAX_DELAY) {
+            throw new IllegalArgumentException("timer delay must be 1.." + MAX_DELAY + " ticks, not " + delay);
+        }
+        if (freeList < 0) {
+            grow();
+        }
+        int timer = freeList;
+        freeList = next[timer];
+        due[timer] = now + delay;
+        this.event[timer] = event;
+        this.data[timer] = data;
+        link(timer);
+        pending++;
+        return timer;
+    }
+
+    //stop a timer from firing. Returns false if it already fired or was
+    //cancelled (-1 is fine too, for "no timer")
+    boolean cancel(int timer) {
+        if (timer < HEADS || timer >= next.length || prev[timer] < 0) {
+            return false;
+        }
+        unlink(timer);
+        free(timer);
+        pending--;
+        return true;
+    }
+
+    //move on a tick, then poll() for the timers that are due
+    void advance() {
+        now++;
+        //a level's slot comes round when the levels below it have all wrapped.
+        //the highest first, since its timers may land in the slots below
+        int level = 1;
+        while (level < LEVELS && (now & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+            level++;
+        }
+        for (int l = level - 1; l >= 1; l--) {
+            int head = l * SLOTS + (int) ((now >>> (SLOT_BITS * l)) & (SLOTS - 1));
+            int timer = next[head];
+            next[head] = head;
+            prev[head] = head;
+            while (timer != head) {
+                int following = next[timer];
+                link(timer);
+                timer = following;
+            }
+        }
+    }
+
+    //the next timer due this tick, or -1 when there are no more. The order is
+    //always the same for the same schedule() and cancel() calls, so replays
+    //fire things in the same order. The timer is done with once returned: read
+    //its event and data before scheduling anything else, which may reuse the id
+    int poll() {
+        int head = (int) (now & (SLOTS - 1));
+        int timer = next[head];
+        if (timer == head) {
+            return -1;
+        }
+        unlink(timer);
+        free(timer);
+        pending--;
+        return timer;
+    }
+
+    //put a timer at the end of the slot it belongs in for its due tick
+    private void link(int timer) {
+        long delay = due[timer] - now;
+        int level = 0;
+        while (level < LEVELS - 1 && delay >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int head = level * SLOTS + (int) ((due[timer] >>> (SLOT_BITS * level)) & (SLOTS - 1));
+        int last = prev[head];
+        next[last] = timer;
+        prev[timer] = last;
+        next[timer] = head;
+        prev[head] = timer;
+    }
+
+    private void unlink(int timer) {
+        next[prev[timer]] = next[timer];
+        prev[next[timer]] = prev[timer];
+    }
+
+    private void free(int timer) {
+        prev[timer] = -1;
+        next[timer] = freeList;
+        freeList = timer;
+    }
+
+    //twice the timers, the new ones all free
+    private void grow() {
+        int size = next.length;
+        int newSize = HEADS + (size - HEADS) * 2;
+        next = Arrays.copyOf(next, newSize);
+        prev = Arrays.copyOf(prev, newSize);
+        due = Arrays.copyOf(due, newSize);
+        event = Arrays.copyOf(event, newSize);
+        data = Arrays.copyOf(data, newSize);
+        for (int timer = newSize - 1; timer >= size; timer--) {
+            free(timer);
+        }
+    }
+
+    //make this an exact copy of other, with the same ids for the same timers
+    void copyFrom(TimerWheel other) {
+        now = other.now;
+        pending = other.pending;
+        freeList = other.freeList;
+        if (next.length != other.next.length) {
+            next = new int[other.next.length];
+            prev = new int[other.next.length];
+            due = new long[other.next.length];
+            event = new int[other.next.length];
+            data = new int[other.next.length];
+        }
+        System.arraycopy(other.next, 0, next, 0, next.length);
+        System.arraycopy(other.prev, 0, prev, 0, prev.length);
+        System.arraycopy(other.due, 0, due, 0, due.length);
+        System.arraycopy(other.event, 0, event, 0, event.length);
+        System.arraycopy(other.data, 0, data, 0, data.length);
+    }
+}
@@ -0,0 +1,366 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+//A batch of games stepped in lockstep, for training agents: step(actions)
+//moves every game on a tick and leaves what each one looks like now in
+//direct buffers, which native code (numpy, a GPU copy) can read in place.
+//
+//Everything is allocated up front. A step writes into the same buffers and
+//arrays every time, a game that ends is restarted in place, and the
+//observations are updated from what changed (the eaten food log, the fruits)
+//rather than redrawn, so stepping doesn't allocate. With more than one
+//thread the envs are split into a slice per thread, each stepped by its own
+//worker that waits for the next step() (the caller steps the first slice),
+//rather than going through a thread pool, which allocates a little per task.
+//
+//Env e's observation, all in native byte order:
+//    grid    tileCount bytes from e * tileCount, a tile's flags: WALL, FOOD,
+//            POWER_FOOD (with FOOD), and the fruit type (1-3) << FRUIT_SHIFT
+//    food    foodWords longs from e * foodWords, a bit per tile with food left
+//    actors  ACTOR_FLOATS floats per actor from e * actorCount * ACTOR_FLOATS,
+//            (x, y) in tiles, direction (0-3 for U D L R) and 1 if frightened.
+//            pacman first, then the ghosts, as in Game
+//    stats   STAT_FLOATS floats from e * STAT_FLOATS: score, lives, speed
+//
+//After step(), rewards[e] is the points game e made, and done[e] or
+//truncated[e] says it ended (game over, or maxTicks went by). An ended game
+//has already been restarted, so its observation is the new game's first one;
+//finalScores[e] and finalTicks[e] keep how the last one went.
+//
+//usage: java VectorEnv [envs] [threads] [seconds]  (random actions, prints steps/s)
+public class VectorEnv {
+    static final char[] ACTIONS = {0, 'U', 'D', 'L', 'R'}; // action i presses ACTIONS[i], 0 for none
+    static final String DIRECTIONS = "UDLR";
+    static final long DEFAULT_MAX_TICKS = 20 * 60 * 10; // 10 minutes of play
+
+    static final byte WALL = 1;
+    static final byte FOOD = 2;
+    static final byte POWER_FOOD = 4;
+    static final int FRUIT_SHIFT = 3;
+    static final byte FRUIT = 3 << FRUIT_SHIFT;
+
+    static final int SPINS = 1000; // how long a waiting thread spins before it parks
+
+    static final int ACTOR_FLOATS = 4;
+    static final int STAT_FLOATS = 3;
+
+    int envCount;
+    long seed;
+    long maxTicks;
+    Game[] games;
+    int[] episodes; // games env e has finished, so the one it's on is seeded seedOf(e)
+
+    int tileCount;
+    int foodWords;
+    int actorCount;
+    ByteBuffer grid;
+    LongBuffer food;
+    FloatBuffer actors;
+    FloatBuffer stats;
+
+    float[] rewards;
+    boolean[] done;
+    boolean[] truncated;
+    int[] finalScores;
+    long[] finalTicks;
+
+    //what each env's grid shows, so a step only writes what changed
+    int[] gridMapVersion;
+    int[] gridEatenCount;
+    int[][] gridFruitTiles;
+    int[] gridFruitCount;
+
+    int[] actions; // the ones step() is applying
+    Slice[] slices;
+    float[] scratch; // for observe() outside step()
+
+    //slice i > 0 is stepped by workers[i - 1]. step() bumps generation to start
+    //them, and the last one to finish its slice wakes the caller back up
+    Thread[] workers;
+    volatile long generation;
+    volatile boolean closed;
+    AtomicInteger unfinished = new AtomicInteger();
+    volatile Thread caller;
+    AtomicReference<Throwable> failure = new AtomicReference<>(); // the first thing a slice threw this step
+
+    VectorEnv(Level level, int envCount, int threads, long seed, long maxTicks) {
+        this.envCount = envCount;
+        this.seed = seed;
+        this.maxTicks = maxTicks;
+        games = new Game[envCount];
+        episodes = new int[envCount];
+        for (int env = 0; env < envCount; env++) {
+            games[env] = new Game(level, seedOf(env));
+        }
+
+        tileCount = games[0].rowCount * games[0].columnCount;
+        foodWords = games[0].foodBits.length;
+        actorCount = games[0].actorCount;
+        grid = ByteBuffer.allocateDirect(envCount * tileCount).order(ByteOrder.nativeOrder());
+        food = ByteBuffer.allocateDirect(envCount * foodWords * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+        actors = ByteBuffer.allocateDirect(envCount * actorCount * ACTOR_FLOATS * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        stats = ByteBuffer.allocateDirect(envCount * STAT_FLOATS * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+        scratch = new float[actorCount * ACTOR_FLOATS];
+        rewards = new float[envCount];
+        done = new boolean[envCount];
+        truncated = new boolean[envCount];
+        finalScores = new int[envCount];
+        finalTicks = new long[envCount];
+
+        gridMapVersion = new int[envCount];
+        gridEatenCount = new int[envCount];
+        gridFruitTiles = new int[envCount][4];
+        gridFruitCount = new int[envCount];
+
+        //each thread gets a run of envs next to each other, so they write
+        //separate stretches of the buffers
+        threads = Math.max(1, Math.min(threads, envCount));
+        slices = new Slice[threads];
+        for (int i = 0; i < threads; i++) {
+            slices[i] = new Slice(envCount * i / threads, envCount * (i + 1) / threads);
+        }
+        workers = new Thread[threads - 1];
+        for (int i = 0; i < workers.length; i++) {
+            Slice slice = slices[i + 1];
+            workers[i] = new Thread(() -> work(slice), "vector env worker " + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+
+        for (int env = 0; env < envCount; env++) {
+            gridMapVersion[env] = games[env].mapVersion - 1; // the first observe() draws the whole grid
+            observe(env, scratch);
+        }
+    }
+
+    VectorEnv(int envCount, int threads, long seed) {
+        this(Level.of(Game.DEFAULT_TILE_MAP), envCount, threads, seed, DEFAULT_MAX_TICKS);
+    }
+
+    //env e's episode n is game seed + e + n * envCount, so every game of a run
+    //is different and any one of them can be played again on its own
+    long seedOf(int env) {
+        return seed + env + (long) episodes[env] * envCount;
+    }
+
+    //step every game once, game e pressing ACTIONS[actions[e]]
+    public void step(int[] actions) {
+        if (actions.length != envCount) {
+            throw new IllegalArgumentException("expected " + envCount + " actions, got " + actions.length);
+        }
+        for (int action : actions) {
+            if (action < 0 || action >= ACTIONS.length) {
+                throw new IllegalArgumentException("action must be 0.." + (ACTIONS.length - 1) + ", not " + action);
+            }
+        }
+        this.actions = actions;
+        if (workers.length == 0) {
+            slices[0].run();
+            return;
+        }
+
+        caller = Thread.currentThread();
+        unfinished.set(workers.length);
+        generation++;
+        for (Thread worker : workers) {
+            LockSupport.unpark(worker);
+        }
+        try {
+            slices[0].run();
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        }
+        //even when our own slice failed: the workers have to be done with this
+        //step before the next one resets unfinished
+        for (int spins = 0; unfinished.get() > 0; spins++) {
+            if (spins < SPINS) {
+                Thread.onSpinWait();
+            }
+            else {
+                LockSupport.park(this);
+            }
+        }
+        Throwable failed = failure.getAndSet(null); // reported once, the next step() (or a reset() first) starts clean
+        if (failed != null) {
+            throw new IllegalStateException("a game failed to step", failed);
+        }
+    }
+
+    //a worker's life: step its slice every time generation moves on
+    void work(Slice slice) {
+        long seen = 0;
+        while (true) {
+            for (int spins = 0; generation == seen && !closed; spins++) {
+                if (spins < SPINS) {
+                    Thread.onSpinWait();
+                }
+                else {
+                    LockSupport.park(this);
+                }
+            }
+            if (closed) {
+                return;
+            }
+            seen = generation;
+            try {
+                slice.run();
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+            if (unfinished.decrementAndGet() == 0) {
+                LockSupport.unpark(caller);
+            }
+        }
+    }
+
+    //start every game over from its current episode's seed
+    public void reset() {
+        for (int env = 0; env < envCount; env++) {
+            games[env].restart(seedOf(env));
+            rewards[env] = 0;
+            done[env] = false;
+            truncated[env] = false;
+            observe(env, scratch);
+        }
+    }
+
+    //envs [from, to), stepped by one thread
+    class Slice {
+        int from;
+        int to;
+        float[] scratch = new float[actorCount * ACTOR_FLOATS];
+
+        Slice(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        void run() {
+            for (int env = from; env < to; env++) {
+                stepEnv(env, scratch);
+            }
+        }
+    }
+
+    void stepEnv(int env, float[] scratch) {
+        Game game = games[env];
+        int score = game.score;
+        game.step(ACTIONS[actions[env]]);
+        rewards[env] = game.score - score;
+        done[env] = game.gameOver;
+        truncated[env] = !game.gameOver && game.tick >= maxTicks;
+        if (done[env] || truncated[env]) {
+            finalScores[env] = game.score;
+            finalTicks[env] = game.tick;
+            episodes[env]++;
+            game.restart(seedOf(env));
+        }
+        observe(env, scratch);
+    }
+
+    //write env's observation from its game. The actors are put together in
+    //scratch first, since one bulk put costs about what a single float does
+    void observe(int env, float[] scratch) {
+        Game game = games[env];
+
+        //the grid: redrawn when the level's been (re)loaded, otherwise just the
+        //food eaten since last time and the fruits moved
+        int tiles = env * tileCount;
+        if (gridMapVersion[env] != game.mapVersion) {
+            for (int tile = 0; tile < tileCount; tile++) {
+                int flags = game.wallGrid[tile] ? WALL : 0;
+                if (game.hasFood(tile)) {
+                    flags |= game.powerFoodGrid[tile] ? FOOD | POWER_FOOD : FOOD;
+                }
+                grid.put(tiles + tile, (byte) flags);
+            }
+            gridMapVersion[env] = game.mapVersion;
+            gridEatenCount[env] = 0;
+            gridFruitCount[env] = 0;
+        }
+        while (gridEatenCount[env] < game.eatenFoodCount) {
+            int tile = tiles + game.eatenFoodTiles[gridEatenCount[env]++];
+            grid.put(tile, (byte) (grid.get(tile) & ~(FOOD | POWER_FOOD)));
+        }
+        int[] fruitTiles = gridFruitTiles[env];
+        for (int i = 0; i < gridFruitCount[env]; i++) {
+            int tile = tiles + fruitTiles[i];
+            grid.put(tile, (byte) (grid.get(tile) & ~FRUIT));
+        }
+        if (fruitTiles.length < game.fruitCount) {
+            fruitTiles = gridFruitTiles[env] = new int[game.fruitCount * 2];
+        }
+        for (int i = 0; i < game.fruitCount; i++) {
+            int tile = game.fruitTiles[i];
+            fruitTiles[i] = tile;
+            grid.put(tiles + tile, (byte) (grid.get(tiles + tile) | game.fruitGrid[tile] << FRUIT_SHIFT));
+        }
+        gridFruitCount[env] = game.fruitCount;
+
+        food.put(env * foodWords, game.foodBits, 0, foodWords);
+
+        float tileSize = game.tileSize;
+        for (int actor = 0; actor < actorCount; actor++) {
+            int at = actor * ACTOR_FLOATS;
+            scratch[at] = game.actorX[actor] / tileSize;
+            scratch[at + 1] = game.actorY[actor] / tileSize;
+            scratch[at + 2] = DIRECTIONS.indexOf(game.direction[actor]);
+            scratch[at + 3] = game.frightened[actor] ? 1 : 0;
+        }
+        actors.put(env * actorCount * ACTOR_FLOATS, scratch, 0, actorCount * ACTOR_FLOATS);
+
+        scratch[0] = game.score;
+        scratch[1] = game.lives;
+        scratch[2] = game.speed;
+        stats.put(env * STAT_FLOATS, scratch, 0, STAT_FLOATS);
+    }
+
+    //stop the worker threads
+    public void close() {
+        closed = true;
+        for (Thread worker : workers) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    public static void main(String[] args) {
+        int envCount = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        VectorEnv env = new VectorEnv(envCount, threads, 0);
+        GameRandom random = new GameRandom(0);
+        int[] actions = new int[envCount];
+        long steps = 0;
+        long episodes = 0;
+        long totalScore = 0;
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        while (System.nanoTime() < end) {
+            //the random agent's habits: a new key now and then, mostly none
+            for (int i = 0; i < envCount; i++) {
+                actions[i] = random.nextInt(8) == 0 ? 1 + random.nextInt(4) : 0;
+            }
+            env.step(actions);
+            steps += envCount;
+            for (int i = 0; i < envCount; i++) {
+                if (env.done[i] || env.truncated[i]) {
+                    episodes++;
+                    totalScore += env.finalScores[i];
+                }
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        env.close();
+
+        System.out.println("envs: " + envCount + " on " + env.slices.length + " threads for " + String.format("%.1f", elapsed) + "s");
+        System.out.println("throughput: " + String.format("%.0f", steps / elapsed) + " steps/s");
+        System.out.println("episodes: " + episodes + (episodes > 0 ? ", mean score " + totalScore / episodes : ""));
+    }
+}
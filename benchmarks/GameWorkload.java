@@ -0,0 +1,70 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+//The game side of bench.GameBenchmarks, see bench.Workload.
+public class GameWorkload implements bench.Workload {
+    static final int PROBES = 1024;
+
+    Game game;
+    Agent agent;
+    int[] probeX = new int[PROBES];
+    int[] probeY = new int[PROBES];
+
+    PacMan panel;
+    Graphics2D graphics;
+
+    public void setup(int mazeScale, int ghosts, long seed) {
+        game = new Game(Mazes.tiled(mazeScale, ghosts, seed), seed);
+        agent = Agent.random(seed);
+        for (int i = 0; i < 200; i++) {
+            game.step(agent.nextInput(game));
+        }
+
+        Random random = new Random(seed);
+        for (int i = 0; i < PROBES; i++) {
+            probeX[i] = random.nextInt(game.boardWidth - game.tileSize);
+            probeY[i] = random.nextInt(game.boardHeight - game.tileSize);
+        }
+
+        panel = new PacMan(game);
+        BufferedImage image = new BufferedImage(panel.viewWidth, panel.viewHeight, BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+    }
+
+    public boolean tick() {
+        if (game.gameOver) {
+            game.restart();
+        }
+        game.step(agent.nextInput(game));
+        return game.gameOver;
+    }
+
+    //what used to be collision(Block, Block) against every wall
+    public boolean wallCollision(int probe) {
+        int i = probe & (PROBES - 1);
+        return game.hitsWall(probeX[i], probeY[i], game.tileSize, game.tileSize);
+    }
+
+    public int loadMap() {
+        game.loadMap();
+        return game.foodCount;
+    }
+
+    public int spawnRandomFruit() {
+        if (!game.spawnRandomFruit()) {
+            return -1;
+        }
+        int tile = game.fruitTiles[game.fruitCount - 1];
+        game.removeFruit(tile);
+        return tile;
+    }
+
+    public void draw() {
+        panel.draw(graphics);
+    }
+
+    public void tearDown() {
+        graphics.dispose();
+    }
+}
@@ -0,0 +1,45 @@
+import java.util.Random;
+
+//Bigger boards for benchmarking: the default maze repeated scale x scale
+//times, with one pacman and the given number of ghosts dropped onto
+//random free tiles.
+public class Mazes {
+    static String[] tiled(int scale, int ghosts, long seed) {
+        String[] base = Game.DEFAULT_TILE_MAP;
+        int rows = base.length * scale;
+        int columns = base[0].length() * scale;
+        char[][] map = new char[rows][columns];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                char tile = base[r % base.length].charAt(c % base[0].length());
+                map[r][c] = tile == 'X' || tile == 'O' ? tile : ' ';
+            }
+        }
+
+        //pacman where it starts on the default map, in the first copy
+        for (int r = 0; r < base.length; r++) {
+            int c = base[r].indexOf('P');
+            if (c >= 0) {
+                map[r][c] = 'P';
+            }
+        }
+
+        Random random = new Random(seed);
+        char[] ghostKinds = {'b', 'o', 'p', 'r'};
+        for (int i = 0; i < ghosts; i++) {
+            int r;
+            int c;
+            do {
+                r = random.nextInt(rows);
+                c = random.nextInt(columns);
+            } while (map[r][c] != ' ');
+            map[r][c] = i == 0 ? 'g' : ghostKinds[i % 4];
+        }
+
+        String[] tileMap = new String[rows];
+        for (int r = 0; r < rows; r++) {
+            tileMap[r] = new String(map[r]);
+        }
+        return tileMap;
+    }
+}
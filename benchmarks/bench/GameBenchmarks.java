@@ -0,0 +1,62 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+//JMH benchmarks for the hot paths, on the default maze and on bigger tiled
+//copies of it with more ghosts.
+//
+//mvn -Pbench package && java -jar target/benchmarks.jar
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class GameBenchmarks {
+    @Param({"1", "4", "16"})
+    int mazeScale;
+
+    @Param({"4", "32"})
+    int ghosts;
+
+    Workload workload;
+    int probe;
+
+    @Setup(Level.Trial)
+    public void setup() throws ReflectiveOperationException {
+        workload = Workload.create();
+        workload.setup(mazeScale, ghosts, 42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        workload.tearDown();
+    }
+
+    @Benchmark
+    public boolean tick() {
+        return workload.tick();
+    }
+
+    @Benchmark
+    public boolean wallCollision() {
+        return workload.wallCollision(probe++);
+    }
+
+    @Benchmark
+    public int loadMap() {
+        return workload.loadMap();
+    }
+
+    @Benchmark
+    public int spawnRandomFruit() {
+        return workload.spawnRandomFruit();
+    }
+
+    @Benchmark
+    public void draw() {
+        workload.draw();
+    }
+}
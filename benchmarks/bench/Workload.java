@@ -0,0 +1,24 @@
+package bench;
+
+//JMH won't run benchmarks from the default package, and the game lives in the
+//default package where a named package can't import it. So the benchmarks
+//drive the game through this interface, implemented by GameWorkload.
+public interface Workload {
+    void setup(int mazeScale, int ghosts, long seed);
+
+    boolean tick();
+
+    boolean wallCollision(int probe);
+
+    int loadMap();
+
+    int spawnRandomFruit();
+
+    void draw();
+
+    void tearDown();
+
+    static Workload create() throws ReflectiveOperationException {
+        return (Workload) Class.forName("GameWorkload").getDeclaredConstructor().newInstance();
+    }
+}
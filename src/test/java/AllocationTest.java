@@ -0,0 +1,99 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.event.KeyEvent;
+import java.lang.management.ManagementFactory;
+import org.junit.jupiter.api.Test;
+
+//The game loop shouldn't make garbage once it's warmed up: GC pauses are
+//visible hitches on small heaps. Plays the panel's ticks and puts its frames
+//together headlessly and counts what this thread allocates. The game is
+//seeded and pacman is steered to the nearest food, so every run plays the
+//same games: pellets eaten (blacked out in the maze chunks), lives lost,
+//game over and a restart, all inside the measured frames.
+class AllocationTest {
+    static final int WARM_UP_FRAMES = 20_000;
+    static final int MEASURED_FRAMES = 5_000;
+
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    PacMan panel;
+    Game game;
+    DistanceField distance; // the test's own, so steering doesn't touch the game's
+    char lastArrow;
+
+    //what happened in the measured frames
+    int pelletsEaten;
+    int gamesOver;
+    int restarts;
+
+    @Test
+    void tickAndDrawDontAllocate() {
+        game = new Game(0);
+        panel = new PacMan(game);
+        distance = new DistanceField(game.rowCount, game.columnCount, game.wallGrid);
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            pressKeys();
+            frame();
+        }
+
+        long allocated = 0;
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            pressKeys();
+            int food = game.foodCount;
+            boolean over = game.gameOver;
+            long before = threads.getCurrentThreadAllocatedBytes();
+            frame();
+            allocated += threads.getCurrentThreadAllocatedBytes() - before;
+            if (game.foodCount < food) pelletsEaten++;
+            if (!over && game.gameOver) gamesOver++;
+            if (over && !game.gameOver) restarts++;
+        }
+        panel.frameGraphics.dispose();
+
+        assertTrue(pelletsEaten > 0, "no pellets eaten in the measured frames");
+        assertTrue(gamesOver > 0 && restarts > 0, "no game over and restart in the measured frames");
+        assertEquals(0, allocated, "bytes allocated over " + MEASURED_FRAMES + " frames ("
+                + pelletsEaten + " pellets eaten, " + gamesOver + " games over, " + restarts + " restarts)");
+    }
+
+    //what the game loop does for a tick: the tick, then a frame put together
+    //halfway to the next tick
+    void frame() {
+        panel.tick();
+        panel.alpha = 0.5;
+        panel.drawFrame();
+    }
+
+    //any key to start again after game over, else an arrow towards the
+    //nearest food whenever that changes
+    void pressKeys() {
+        if (game.gameOver) {
+            panel.inputs.offer(KeyEvent.VK_SPACE);
+            lastArrow = 0;
+            return;
+        }
+        char arrow = towardsFood();
+        if (arrow != 0 && arrow != lastArrow) {
+            panel.inputs.offer(arrow == 'U' ? KeyEvent.VK_UP : arrow == 'D' ? KeyEvent.VK_DOWN
+                    : arrow == 'L' ? KeyEvent.VK_LEFT : KeyEvent.VK_RIGHT);
+            lastArrow = arrow;
+        }
+    }
+
+    //the first step from pacman's tile along a shortest path to the nearest food
+    char towardsFood() {
+        int pacman = game.centerTile(Game.PACMAN);
+        if (pacman < 0) return 0;
+        distance.compute(pacman);
+        int nearest = -1;
+        for (int tile = 0; tile < game.rowCount * game.columnCount; tile++) {
+            if (game.hasFood(tile) && distance.distance(tile) != DistanceField.UNREACHABLE
+                    && (nearest < 0 || distance.distance(tile) < distance.distance(nearest))) {
+                nearest = tile;
+            }
+        }
+        if (nearest < 0) return 0;
+        distance.compute(nearest);
+        return distance.downhill(pacman);
+    }
+}
@@ -0,0 +1,63 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+//restart(seed) has to give the game new Game(seed) would, or a recording
+//started after a restart (every game in the window but the first) won't
+//replay the way it was played
+class RestartTest {
+    static final int SEEDS = 200;
+    static final int TICKS = 3000;
+
+    @Test
+    void restartPlaysLikeANewGame() {
+        for (long seed = 0; seed < SEEDS; seed++) {
+            //a game played a while first (it may have sped up), so there's state to leave behind
+            Game restarted = new Game(SEEDS + seed);
+            Agent previous = Agent.random(seed);
+            while (!restarted.gameOver && restarted.tick < TICKS) {
+                restarted.step(previous.nextInput(restarted));
+            }
+            restarted.restart(seed);
+            Game fresh = new Game(seed);
+
+            Agent agent = Agent.random(seed);
+            for (int tick = 0; tick < TICKS && !fresh.gameOver; tick++) {
+                assertSameState(fresh, restarted, "seed " + seed + " tick " + tick);
+                char input = agent.nextInput(fresh);
+                fresh.step(input);
+                restarted.step(input);
+            }
+            assertSameState(fresh, restarted, "seed " + seed + " at the end");
+        }
+    }
+
+    static void assertSameState(Game expected, Game actual, String where) {
+        assertEquals(expected.tick, actual.tick, where);
+        assertEquals(expected.random.getState(), actual.random.getState(), where + ": random");
+        assertEquals(expected.score, actual.score, where + ": score");
+        assertEquals(expected.lives, actual.lives, where + ": lives");
+        assertEquals(expected.speed, actual.speed, where + ": speed");
+        assertEquals(expected.lastSpeedIncreaseScore, actual.lastSpeedIncreaseScore, where);
+        assertEquals(expected.fruitsEaten, actual.fruitsEaten, where + ": fruits eaten");
+        assertEquals(expected.killedBy, actual.killedBy, where + ": killed by");
+        assertEquals(expected.gameOver, actual.gameOver, where + ": game over");
+        assertEquals(expected.paused, actual.paused, where + ": paused");
+        assertEquals(expected.desiredDirection, actual.desiredDirection, where + ": desired direction");
+        assertArrayEquals(expected.actorX, actual.actorX, where + ": x");
+        assertArrayEquals(expected.actorY, actual.actorY, where + ": y");
+        assertArrayEquals(expected.velocityX, actual.velocityX, where + ": velocity x");
+        assertArrayEquals(expected.velocityY, actual.velocityY, where + ": velocity y");
+        assertArrayEquals(expected.direction, actual.direction, where + ": direction");
+        assertArrayEquals(expected.frightened, actual.frightened, where + ": frightened");
+        assertEquals(expected.foodCount, actual.foodCount, where + ": food");
+        assertArrayEquals(expected.foodBits, actual.foodBits, where + ": food");
+        assertEquals(expected.fruitCount, actual.fruitCount, where + ": fruit");
+        for (int i = 0; i < expected.fruitCount; i++) {
+            int tile = expected.fruitTiles[i];
+            assertEquals(tile, actual.fruitTiles[i], where + ": fruit");
+            assertEquals(expected.fruitGrid[tile], actual.fruitGrid[tile], where + ": fruit");
+        }
+    }
+}
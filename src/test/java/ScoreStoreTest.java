@@ -0,0 +1,53 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.LongAdder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ScoreStoreTest {
+    static final int ROUNDS = 20;
+    static final int SUBMITTERS = 4;
+
+    @TempDir
+    Path directory;
+
+    //every result submit() or put() accepted is on disk after close(), even
+    //when close() runs while they're being queued
+    @Test
+    void closeKeepsEveryAcceptedResult() throws Exception {
+        long expected = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            ScoreStore store = ScoreStore.open(directory);
+            LongAdder accepted = new LongAdder();
+            Thread[] submitters = new Thread[SUBMITTERS];
+            for (int i = 0; i < SUBMITTERS; i++) {
+                boolean wait = i % 2 == 0;
+                submitters[i] = new Thread(() -> {
+                    Game game = new Game(0);
+                    while (true) {
+                        if (wait ? store.put(game) : store.submit(game)) {
+                            accepted.increment();
+                        }
+                        else if ((store.state.get() & ScoreStore.CLOSED) != 0) {
+                            return;
+                        }
+                    }
+                });
+                submitters[i].start();
+            }
+            Thread.sleep(round % 5);
+            store.close();
+            for (Thread submitter : submitters) {
+                submitter.join();
+            }
+            assertFalse(store.submit(new Game(0)), "a closed store takes no more results");
+
+            expected += accepted.sum();
+            ScoreStore reopened = ScoreStore.open(directory);
+            assertEquals(expected, reopened.totals()[ScoreStore.GAMES], "round " + round);
+            reopened.close();
+        }
+    }
+}